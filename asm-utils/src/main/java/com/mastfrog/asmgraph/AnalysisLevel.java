@@ -0,0 +1,48 @@
+package com.mastfrog.asmgraph;
+
+import static org.objectweb.asm.ClassReader.SKIP_CODE;
+import static org.objectweb.asm.ClassReader.SKIP_DEBUG;
+import static org.objectweb.asm.ClassReader.SKIP_FRAMES;
+
+/**
+ * How much of each class a ClassProcessor needs to see; the less it needs,
+ * the less of each class file is parsed.
+ *
+ * @author Tim Boudreau
+ */
+public enum AnalysisLevel {
+    /**
+     * Only <code>onClass()</code> is called.
+     */
+    HEADERS,
+    /**
+     * <code>onClass()</code> and <code>onFields()</code> are called.
+     */
+    FIELDS,
+    /**
+     * <code>onMethod()</code> is also called for each method, with empty
+     * invocation, field access and referenced type collections - method bodies
+     * are not parsed.
+     */
+    SIGNATURES,
+    /**
+     * Method bodies are parsed, and <code>onMethod()</code> is passed
+     * everything each method invokes, accesses or references.
+     */
+    BODIES;
+
+    boolean visitsFields() {
+        return this != HEADERS;
+    }
+
+    boolean visitsMethods() {
+        return this == SIGNATURES || this == BODIES;
+    }
+
+    int readerFlags() {
+        // Nothing we report uses frames or debug info, so those are never
+        // worth decoding
+        return this == BODIES ? SKIP_FRAMES | SKIP_DEBUG
+                : SKIP_CODE | SKIP_FRAMES | SKIP_DEBUG;
+    }
+}
@@ -12,6 +12,8 @@ import java.io.InputStream;
 import java.nio.file.Path;
 import java.util.List;
 import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 
 /**
  * Walks a class or JAR of classes, and passes encountered fields, methods and
@@ -37,6 +39,88 @@ public interface ClassProcessor {
         new ClassProcessorDriver(this).processJar(jar, parallel);
     }
 
+    /**
+     * Process a JAR in parallel without any locking: each parse thread gets
+     * its own processor from the supplier, which is only ever called from
+     * that thread, and once every class has been processed, they are
+     * combined into one, as with a <code>Collector</code>.
+     *
+     * @param <A> The processor type
+     * @param jar A JAR
+     * @param supplier Creates a processor per thread; the first one created
+     * supplies the entry filter and becomes the result
+     * @param combiner Adds everything collected by its second argument to
+     * its first
+     * @return A processor holding the combined results
+     * @throws IOException If the JAR cannot be read or a class cannot be
+     * parsed
+     */
+    static <A extends ClassProcessor> A processJar(Path jar, Supplier<A> supplier,
+            BiConsumer<A, A> combiner) throws IOException {
+        return ClassProcessorDriver.processJar(jar, supplier, combiner);
+    }
+
+    /**
+     * Process a source in parallel without any locking, with a processor per
+     * split of the source, combined as the splits are joined.
+     *
+     * @param <A> The processor type
+     * @param source A source of classes
+     * @param supplier Creates processors; the first one created supplies the
+     * entry filter and becomes the result
+     * @param combiner Adds everything collected by its second argument to
+     * its first
+     * @return A processor holding the combined results
+     * @throws IOException If the source cannot be read or a class cannot be
+     * parsed
+     */
+    static <A extends ClassProcessor> A process(ClassSource source, Supplier<A> supplier,
+            BiConsumer<A, A> combiner) throws IOException {
+        return ClassProcessorDriver.process(source, supplier, combiner);
+    }
+
+    default void process(ClassSource source) throws IOException {
+        process(source, true);
+    }
+
+    /**
+     * Process every class in a source, such as a whole classpath or the JDK's
+     * runtime image; entries are filtered with <code>acceptsEntry()</code>.
+     *
+     * @param source A source of classes
+     * @param parallel If true, split the source across the common fork-join
+     * pool, in which case this processor is called concurrently
+     * @throws IOException If the source cannot be read or a class cannot be
+     * parsed
+     */
+    default void process(ClassSource source, boolean parallel) throws IOException {
+        new ClassProcessorDriver(this).process(source, parallel);
+    }
+
+    /**
+     * Declare how much of each class this processor needs, so that parts of
+     * class files which it would ignore are not parsed.  The default is
+     * <code>BODIES</code>, which parses everything.
+     *
+     * @return An analysis level
+     */
+    default AnalysisLevel analysisLevel() {
+        return AnalysisLevel.BODIES;
+    }
+
+    /**
+     * Filter the class file entries of JARs by name before they are read, so
+     * that packages this processor is not interested in are never
+     * decompressed.  Not consulted for single class files.
+     *
+     * @param entryName A JAR entry name such as
+     * <code>com/foo/Bar.class</code>
+     * @return true if the entry should be processed
+     */
+    default boolean acceptsEntry(String entryName) {
+        return true;
+    }
+
     /**
      * Called with details about callers and callees within each method
      * encountered.
@@ -48,7 +132,9 @@ public interface ClassProcessor {
      * @param fld Fields that this method accesses, with complete information
      * about their provenance
      * @param invokeDynamics InvokeDynamic calls within this method, with enough
-     * information to reconstruct what they did
+     * information to reconstruct what they did - a subtype of
+     * DynamicInvocationRecord for each kind of bootstrap method; see
+     * <code>bootstrapKind()</code>
      * @param referencedTypes Types referenced in other ways by this method (for
      * example, via <code>instanceof</code>).
      */
@@ -9,6 +9,8 @@ import com.mastfrog.asmgraph.record.FieldRecord;
 import com.mastfrog.asmgraph.record.MethodRecord;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
@@ -16,21 +18,21 @@ import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Queue;
 import java.util.Set;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
-import java.util.logging.Level;
-import java.util.logging.Logger;
-import java.util.stream.Stream;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+import java.util.stream.StreamSupport;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import org.objectweb.asm.ClassReader;
-import static org.objectweb.asm.ClassReader.EXPAND_FRAMES;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.FieldVisitor;
 import org.objectweb.asm.Handle;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import static org.objectweb.asm.Opcodes.ASM9;
-import org.objectweb.asm.Type;
 
 /**
  * Walks a class or JAR of classes, and passes encountered fields, methods and
@@ -43,18 +45,20 @@ final class ClassProcessorDriver {
     static final ClassProcessor NONE = new ClassProcessor() {
     };
     private final ClassProcessor listener;
+    private final AnalysisLevel level;
 
     ClassProcessorDriver() {
-        listener = NONE;
+        this(NONE);
     }
 
     public ClassProcessorDriver(ClassProcessor listener) {
         this.listener = listener;
+        this.level = listener.analysisLevel();
     }
 
     public void process(InputStream in) throws IOException {
         ClassReader rdr = new ClassReader(in);
-        rdr.accept(new V(), EXPAND_FRAMES);
+        rdr.accept(new V(), level.readerFlags());
     }
 
     public void process(Path path) throws IOException {
@@ -68,28 +72,105 @@ final class ClassProcessorDriver {
     }
 
     public void processJar(Path jar, boolean parallel) throws IOException {
-        JarFile jarFile = new JarFile(jar.toFile());
-        List<JarEntry> list = enumToList(jarFile.entries());
-        Stream<JarEntry> stream = parallel ? list.parallelStream() : list.stream();
-        stream.forEach(je -> {
-            if (!je.isDirectory() && je.getName().toString().endsWith(".class")) {
-                try ( InputStream in = jarFile.getInputStream(je)) {
-                    process(in);
-                } catch (IOException ex) {
-                    Logger.getLogger(ClassProcessorDriver.class.getName()).log(Level.SEVERE, null, ex);
+        if (parallel) {
+            new JarReadPipeline(jar, listener::acceptsEntry, () -> this::process).run();
+            return;
+        }
+        try ( ZipFile zip = new ZipFile(jar.toFile())) {
+            Enumeration<? extends ZipEntry> en = zip.entries();
+            while (en.hasMoreElements()) {
+                ZipEntry je = en.nextElement();
+                if (!je.isDirectory() && je.getName().endsWith(".class")
+                        && listener.acceptsEntry(je.getName())) {
+                    try ( InputStream in = zip.getInputStream(je)) {
+                        process(in);
+                    } catch (IOException | RuntimeException ex) {
+                        throw new IOException("Failed processing " + je.getName()
+                                + " in " + jar, ex);
+                    }
                 }
             }
-        });
+        }
+    }
+
+    public void process(byte[] classBytes) {
+        new ClassReader(classBytes).accept(new V(), level.readerFlags());
+    }
+
+    public void process(ByteBuffer classBytes) {
+        ClassReader rdr;
+        if (classBytes.hasArray()) {
+            rdr = new ClassReader(classBytes.array(),
+                    classBytes.arrayOffset() + classBytes.position(), classBytes.remaining());
+        } else {
+            // Mapped - ASM needs an array
+            byte[] bytes = new byte[classBytes.remaining()];
+            classBytes.duplicate().get(bytes);
+            rdr = new ClassReader(bytes);
+        }
+        rdr.accept(new V(), level.readerFlags());
+    }
+
+    /**
+     * Process a JAR in parallel, giving each parse thread its own processor,
+     * so none of them is ever called concurrently, and combining them once
+     * all classes have been processed.
+     */
+    static <A extends ClassProcessor> A processJar(Path jar, Supplier<A> supplier,
+            BiConsumer<A, A> combiner) throws IOException {
+        A result = supplier.get();
+        // Parse threads create their processors concurrently
+        Queue<ClassProcessorDriver> drivers = new ConcurrentLinkedQueue<>();
+        new JarReadPipeline(jar, result::acceptsEntry, () -> {
+            ClassProcessorDriver driver = new ClassProcessorDriver(supplier.get());
+            drivers.add(driver);
+            return driver::process;
+        }).run();
+        for (ClassProcessorDriver driver : drivers) {
+            combiner.accept(result, cast(driver.listener));
+        }
+        return result;
     }
 
-    private static <T> List<T> enumToList(Enumeration<T> en) {
-        List<T> result = new ArrayList<>();
-        while (en.hasMoreElements()) {
-            result.add(en.nextElement());
+    /**
+     * Process a source in parallel, with a processor per leaf of the fork-join
+     * computation, combining them as the computation joins.
+     */
+    static <A extends ClassProcessor> A process(ClassSource source, Supplier<A> supplier,
+            BiConsumer<A, A> combiner) throws IOException {
+        A result = supplier.get();
+        try {
+            ClassProcessorDriver collected = StreamSupport.stream(
+                    source.classes(result::acceptsEntry), true)
+                    .collect(() -> new ClassProcessorDriver(supplier.get()),
+                            (driver, bytes) -> driver.process(bytes),
+                            (a, b) -> combiner.accept(cast(a.listener), cast(b.listener)));
+            combiner.accept(result, cast(collected.listener));
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        } catch (RuntimeException ex) {
+            throw new IOException("Failed processing classes in " + source, ex);
         }
         return result;
     }
 
+    @SuppressWarnings("unchecked")
+    private static <A extends ClassProcessor> A cast(ClassProcessor proc) {
+        // Only ever called on processors created by the caller's supplier
+        return (A) proc;
+    }
+
+    public void process(ClassSource source, boolean parallel) throws IOException {
+        try {
+            StreamSupport.stream(source.classes(listener::acceptsEntry), parallel)
+                    .forEach(this::process);
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        } catch (RuntimeException ex) {
+            throw new IOException("Failed processing classes in " + source, ex);
+        }
+    }
+
     private void onMethod(ClassRecord rec, MethodRecord method,
             List<InvocationRecord> invocations, List<FieldAccessRecord> fld,
             List<DynamicInvocationRecord> invokeDynamics, Set<TypeName> referencedTypes) {
@@ -123,11 +204,17 @@ final class ClassProcessorDriver {
 
         @Override
         public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+            if (!level.visitsMethods()) {
+                return null;
+            }
             return new MV(access, name, descriptor, signature, exceptions, curr);
         }
 
         @Override
         public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+            if (!level.visitsFields()) {
+                return null;
+            }
             FieldRecord rec = new FieldRecord(access, name, descriptor, signature, value);
             fields.add(rec);
             return null;
@@ -151,7 +238,9 @@ final class ClassProcessorDriver {
         @Override
         public void visitEnd() {
             super.visitEnd();
-            onFields(curr, fields);
+            if (level.visitsFields()) {
+                onFields(curr, fields);
+            }
         }
     }
 
@@ -172,44 +261,8 @@ final class ClassProcessorDriver {
 
         @Override
         public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrapMethodHandle, Object... bootstrapMethodArguments) {
-            if ("metafactory".equals(bootstrapMethodHandle.getName())
-                    && bootstrapMethodArguments.length == 3
-                    && bootstrapMethodArguments[0] instanceof Type
-                    && bootstrapMethodArguments[2] instanceof Type
-                    && bootstrapMethodArguments[1] instanceof Handle) {
-                Type type1 = (Type) bootstrapMethodArguments[0];
-                Handle handle = (Handle) bootstrapMethodArguments[1];
-                Type type2 = (Type) bootstrapMethodArguments[2];
-
-                String methodCoercionTargetSignature = type1.getInternalName();
-                String otherSignature = type2.getInternalName();
-                String lambdaName = handle.getName();
-                String lambdaOwner = handle.getOwner();
-                int tag = handle.getTag();
-                String methodCoercion = descriptor;
-                String lambdaFunctionMethodName = name;
-                DynamicInvocationRecord rec = new DynamicInvocationRecord(lambdaFunctionMethodName,
-                        methodCoercion, methodCoercionTargetSignature, otherSignature,
-                        lambdaName, lambdaOwner, tag, handle.isInterface());
-                invokeDynamics.add(rec);
-            } else if ("makeConcatWithConstants".equals(bootstrapMethodHandle.getName())) {
-                // compiled string concatenation with constants - nothing will be called
-                // we can do anything useful with
-            } else {
-                System.out.println("NOT METAFACTORY: " + bootstrapMethodHandle.getName());
-                System.out.println(curr.name() + " " + method.name
-                        + " InvD\n" + name + " " + descriptor
-                        + "\n desc " + bootstrapMethodHandle.getDesc()
-                        + "\n owner " + bootstrapMethodHandle.getOwner()
-                        + "\n name " + bootstrapMethodHandle.getName()
-                        //                    + " " + Arrays.asList(bootstrapMethodArguments)
-                        + " " + bootstrapMethodArguments.length
-                );
-                for (int i = 0; i < bootstrapMethodArguments.length; i++) {
-                    System.out.println("  " + (i + 1) + ". " + bootstrapMethodArguments[i]
-                            + " (" + bootstrapMethodArguments[i].getClass().getName() + ")");
-                }
-            }
+            invokeDynamics.add(DynamicInvocationRecord.create(name, descriptor,
+                    bootstrapMethodHandle, bootstrapMethodArguments));
         }
 
         @Override
@@ -0,0 +1,134 @@
+package com.mastfrog.asmgraph;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * A source of class files to process - a JAR, a directory, the JDK's
+ * <code>jrt:/</code> image, a map of bytes, or several of those at once.
+ * Class files are handed out as a Spliterator of ByteBuffers, which splits
+ * across sources and across the classes within each source, so a scan of a
+ * whole classpath parallelizes across all of it.
+ * <p>
+ * Entry names are listed when <code>classes()</code> is called, and each
+ * class file is only read when the spliterator reaches it.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+public interface ClassSource {
+
+    /**
+     * Get the class files in this source whose name passes the passed filter;
+     * the filter is applied to names before anything is read.
+     *
+     * @param entryFilter A filter applied to names in JAR entry form, relative
+     * to the root of the source, e.g. <code>com/foo/Bar.class</code>
+     * @return A spliterator of class file contents, which may be slices of a
+     * mapped file or wrap arrays owned by the source, and must not be modified
+     * @throws IOException If the source cannot be listed
+     */
+    Spliterator<ByteBuffer> classes(Predicate<String> entryFilter) throws IOException;
+
+    default Spliterator<ByteBuffer> classes() throws IOException {
+        return classes(name -> true);
+    }
+
+    /**
+     * Classes in the JDK's runtime image.
+     *
+     * @param modules The modules to include, or none for all of them
+     * @return A source
+     */
+    static ClassSource jrt(String... modules) {
+        Set<String> included = new TreeSet<>(Arrays.asList(modules));
+        return new PathClassSource("jrt:/" + (included.isEmpty() ? "" : included), () -> {
+            FileSystem fs = FileSystems.getFileSystem(URI.create("jrt:/"));
+            try ( Stream<Path> str = Files.list(fs.getPath("/modules"))) {
+                List<Path> result = new ArrayList<>();
+                str.filter(mod -> included.isEmpty()
+                        || included.contains(mod.getFileName().toString()))
+                        .sorted().forEach(result::add);
+                return result;
+            }
+        });
+    }
+
+    /**
+     * Classes in an exploded directory, such as <code>target/classes</code>.
+     *
+     * @param dir A directory
+     * @return A source
+     */
+    static ClassSource directory(Path dir) {
+        return new PathClassSource(dir.toString(), () -> Collections.singletonList(dir));
+    }
+
+    /**
+     * Classes in a JAR, which is memory-mapped rather than opened as a
+     * ZipFile. Classes in JARs nested inside it, as in Spring Boot style fat
+     * JARs, are included, and are read from the outer JAR without
+     * extracting them. Classes under <code>BOOT-INF/classes/</code> or
+     * <code>WEB-INF/classes/</code> are named relative to that directory;
+     * <code>module-info.class</code> and multi-release classes under
+     * <code>META-INF/versions/</code> are skipped.
+     *
+     * @param jar A JAR file
+     * @return A source
+     */
+    static ClassSource jar(Path jar) {
+        return new ZipClassSource(jar);
+    }
+
+    /**
+     * Classes held in memory.
+     *
+     * @param classes A map of entry name, e.g. <code>com/foo/Bar.class</code>,
+     * to class file bytes
+     * @return A source
+     */
+    static ClassSource inMemory(Map<String, byte[]> classes) {
+        return new MemoryClassSource(classes);
+    }
+
+    /**
+     * Every JAR and directory on a classpath.
+     *
+     * @param classpath Elements of a classpath
+     * @return A source
+     */
+    static ClassSource classpath(Collection<? extends Path> classpath) {
+        List<ClassSource> result = new ArrayList<>(classpath.size());
+        for (Path p : classpath) {
+            result.add(Files.isDirectory(p) ? directory(p) : jar(p));
+        }
+        return of(result);
+    }
+
+    static ClassSource of(ClassSource... sources) {
+        return of(Arrays.asList(sources));
+    }
+
+    static ClassSource of(List<? extends ClassSource> sources) {
+        if (sources.size() == 1) {
+            return sources.get(0);
+        }
+        return new CompositeClassSource(sources);
+    }
+}
@@ -0,0 +1,109 @@
+package com.mastfrog.asmgraph;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Several class sources scanned as one.
+ *
+ * @author Tim Boudreau
+ */
+final class CompositeClassSource implements ClassSource {
+
+    private final List<ClassSource> sources;
+
+    CompositeClassSource(List<? extends ClassSource> sources) {
+        this.sources = new ArrayList<>(sources);
+    }
+
+    @Override
+    public String toString() {
+        return sources.toString();
+    }
+
+    @Override
+    public Spliterator<ByteBuffer> classes(Predicate<String> entryFilter) throws IOException {
+        List<Spliterator<ByteBuffer>> all = new ArrayList<>(sources.size());
+        for (ClassSource src : sources) {
+            all.add(src.classes(entryFilter));
+        }
+        return new Concatenation(all, 0, all.size());
+    }
+
+    /**
+     * Splits by halving the list of sources; once down to one, splits that
+     * source's own spliterator.
+     */
+    private static final class Concatenation implements Spliterator<ByteBuffer> {
+
+        private final List<Spliterator<ByteBuffer>> parts;
+        private int index;
+        private final int fence;
+
+        Concatenation(List<Spliterator<ByteBuffer>> parts, int index, int fence) {
+            this.parts = parts;
+            this.index = index;
+            this.fence = fence;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super ByteBuffer> action) {
+            while (index < fence) {
+                if (parts.get(index).tryAdvance(action)) {
+                    return true;
+                }
+                index++;
+            }
+            return false;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super ByteBuffer> action) {
+            for (; index < fence; index++) {
+                parts.get(index).forEachRemaining(action);
+            }
+        }
+
+        @Override
+        public Spliterator<ByteBuffer> trySplit() {
+            int remaining = fence - index;
+            if (remaining == 1) {
+                return parts.get(index).trySplit();
+            } else if (remaining <= 0) {
+                return null;
+            }
+            int mid = (index + fence) >>> 1;
+            Concatenation result = new Concatenation(parts, index, mid);
+            index = mid;
+            return result;
+        }
+
+        @Override
+        public long estimateSize() {
+            long result = 0;
+            for (int i = index; i < fence; i++) {
+                result += parts.get(i).estimateSize();
+                if (result < 0) {
+                    return Long.MAX_VALUE;
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public int characteristics() {
+            // Not SUBSIZED - a split off half may have a different share
+            // of the remaining classes than its share of the sources
+            int result = ORDERED | SIZED | NONNULL | IMMUTABLE;
+            for (int i = index; i < fence; i++) {
+                result &= parts.get(i).characteristics();
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.mastfrog.asmgraph;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Spliterator over a list of things which can be loaded as class bytes, which
+ * loads each one only as it is reached, and splits by halving its range.
+ *
+ * @author Tim Boudreau
+ */
+final class IndexedSpliterator<T> implements Spliterator<ByteBuffer> {
+
+    private final List<T> items;
+    private final Loader<T> loader;
+    private int index;
+    private final int fence;
+
+    IndexedSpliterator(List<T> items, Loader<T> loader) {
+        this(items, loader, 0, items.size());
+    }
+
+    private IndexedSpliterator(List<T> items, Loader<T> loader, int index, int fence) {
+        this.items = items;
+        this.loader = loader;
+        this.index = index;
+        this.fence = fence;
+    }
+
+    interface Loader<T> {
+
+        ByteBuffer load(T item) throws IOException;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super ByteBuffer> action) {
+        if (index >= fence) {
+            return false;
+        }
+        T item = items.get(index++);
+        try {
+            action.accept(loader.load(item));
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Reading " + item, ex);
+        }
+        return true;
+    }
+
+    @Override
+    public Spliterator<ByteBuffer> trySplit() {
+        int mid = (index + fence) >>> 1;
+        if (mid <= index) {
+            return null;
+        }
+        IndexedSpliterator<T> result = new IndexedSpliterator<>(items, loader, index, mid);
+        index = mid;
+        return result;
+    }
+
+    @Override
+    public long estimateSize() {
+        return fence - index;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+    }
+}
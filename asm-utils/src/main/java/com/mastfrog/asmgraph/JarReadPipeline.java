@@ -0,0 +1,294 @@
+package com.mastfrog.asmgraph;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Reads the class files in a JAR on a few reader tasks, each thread with its
+ * own ZipFile handle so they do not contend on one file's inflater, and hands
+ * the bytes through a bounded queue to parse tasks, each thread parsing with
+ * a parser of its own from the supplier passed to the constructor, created
+ * the first time that thread parses something. Tasks run on a pool shared by
+ * every pipeline, with the calling thread as the first reader, and there are
+ * never more tasks than class files.
+ * <p>
+ * No task ever blocks on the queue: a reader which finds it full parses what
+ * it read itself, and a parse task which finds it empty reads the next entry
+ * itself, so a pipeline finishes even if the pool is busy with others, or it
+ * is run from a pool thread. Every ZipFile is closed before this returns, and
+ * the first failure stops reading; any failures are thrown as one
+ * IOException rather than being logged and skipped.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+final class JarReadPipeline {
+
+    private final Path jar;
+    private final Predicate<String> filter;
+    private final Supplier<? extends Parser> parsers;
+    private final Executor executor;
+    private final int readers;
+    private final int workers;
+    private final Queue<byte[]> queue;
+    private final Queue<Throwable> failures = new ConcurrentLinkedQueue<>();
+    private final Map<Thread, ThreadState> states = new ConcurrentHashMap<>();
+    private final AtomicInteger nextEntry = new AtomicInteger();
+    private List<String> names;
+    private volatile boolean failed;
+
+    JarReadPipeline(Path jar, Predicate<String> filter, Supplier<? extends Parser> parsers) {
+        this(jar, filter, parsers, defaultReaders(), Runtime.getRuntime().availableProcessors());
+    }
+
+    JarReadPipeline(Path jar, Predicate<String> filter, Supplier<? extends Parser> parsers,
+            int readers, int workers) {
+        this(jar, filter, parsers, SharedPool.POOL, readers, workers);
+    }
+
+    JarReadPipeline(Path jar, Predicate<String> filter, Supplier<? extends Parser> parsers,
+            Executor executor, int readers, int workers) {
+        this.jar = jar;
+        this.filter = filter;
+        this.parsers = parsers;
+        this.executor = executor;
+        this.readers = Math.max(1, readers);
+        this.workers = Math.max(1, workers);
+        this.queue = new ArrayBlockingQueue<>(this.workers * 4);
+    }
+
+    private static int defaultReaders() {
+        // Inflating is cheap next to parsing; a reader for every four cores
+        // keeps the parse threads fed
+        return Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 4));
+    }
+
+    interface Parser {
+
+        void parse(byte[] classBytes) throws Exception;
+    }
+
+    void run() throws IOException {
+        // The first handle lists the entries and is then used by the
+        // calling thread, which reads too
+        ZipFile first = new ZipFile(jar.toFile());
+        states.put(Thread.currentThread(), new ThreadState(first));
+        List<Task> tasks = new ArrayList<>();
+        boolean interrupted = false;
+        try {
+            names = classEntries(first);
+            // One entry is always left for the calling thread
+            int taskCount = Math.min(readers - 1 + workers, names.size() - 1);
+            CountDownLatch done = new CountDownLatch(Math.max(0, taskCount));
+            try {
+                for (int i = 0; i < taskCount; i++) {
+                    Task task = new Task(i < readers - 1, done);
+                    tasks.add(task);
+                    executor.execute(task);
+                }
+                work(true);
+            } catch (RuntimeException | Error ex) {
+                // Thread creation failed or the executor rejected a task
+                fail(ex);
+            } finally {
+                // Take back anything not started yet, so we only wait for
+                // tasks that are running and cannot block
+                for (Task task : tasks) {
+                    if (task.claim()) {
+                        done.countDown();
+                    }
+                }
+                for (int i = tasks.size(); i < taskCount; i++) {
+                    done.countDown();
+                }
+                while (done.getCount() > 0) {
+                    try {
+                        done.await();
+                    } catch (InterruptedException ex) {
+                        // Stop reading, but still wait for the tasks, so no
+                        // ZipFile is left open when we return
+                        interrupted = true;
+                        failed = true;
+                    }
+                }
+            }
+            // Parse anything a reader queued after the parse tasks finished
+            work(false);
+        } catch (RuntimeException | Error ex) {
+            fail(ex);
+        } finally {
+            for (ThreadState state : states.values()) {
+                state.close();
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+            InterruptedIOException ex = new InterruptedIOException("Interrupted reading " + jar);
+            failures.forEach(ex::addSuppressed);
+            throw ex;
+        }
+        if (!failures.isEmpty()) {
+            IOException ex = new IOException("Failed processing " + failures.size()
+                    + " entries in " + jar);
+            failures.forEach(ex::addSuppressed);
+            throw ex;
+        }
+    }
+
+    private List<String> classEntries(ZipFile zip) {
+        List<String> result = new ArrayList<>(zip.size());
+        Enumeration<? extends ZipEntry> en = zip.entries();
+        while (en.hasMoreElements()) {
+            ZipEntry e = en.nextElement();
+            // Names come from the central directory, so filtered out
+            // entries are never decompressed
+            if (!e.isDirectory() && e.getName().endsWith(".class")
+                    && filter.test(e.getName())) {
+                result.add(e.getName());
+            }
+        }
+        return result;
+    }
+
+    private void work(boolean reader) {
+        ThreadState state = states.computeIfAbsent(Thread.currentThread(),
+                t -> new ThreadState(null));
+        try {
+            while (!failed) {
+                byte[] bytes = reader ? null : queue.poll();
+                if (bytes == null) {
+                    int ix = nextEntry.getAndIncrement();
+                    if (ix >= names.size()) {
+                        return;
+                    }
+                    bytes = state.read(names.get(ix));
+                    if (bytes == null || (reader && queue.offer(bytes))) {
+                        continue;
+                    }
+                }
+                state.parse(bytes);
+            }
+        } catch (Exception | Error ex) {
+            fail(ex);
+        }
+    }
+
+    private void fail(Throwable th) {
+        failed = true;
+        failures.add(th);
+    }
+
+    /**
+     * The ZipFile and parser of one thread, which only that thread uses while
+     * the pipeline runs.
+     */
+    private final class ThreadState {
+
+        private ZipFile zip;
+        private Parser parser;
+
+        ThreadState(ZipFile zip) {
+            this.zip = zip;
+        }
+
+        byte[] read(String name) {
+            try {
+                if (zip == null) {
+                    zip = new ZipFile(jar.toFile());
+                }
+                try ( InputStream in = zip.getInputStream(zip.getEntry(name))) {
+                    return in.readAllBytes();
+                }
+            } catch (IOException | RuntimeException ex) {
+                fail(new IOException("Reading " + name + " in " + jar, ex));
+                return null;
+            }
+        }
+
+        void parse(byte[] bytes) throws Exception {
+            if (parser == null) {
+                parser = parsers.get();
+            }
+            parser.parse(bytes);
+        }
+
+        void close() {
+            if (zip != null) {
+                try {
+                    zip.close();
+                } catch (IOException ex) {
+                    failures.add(ex);
+                }
+            }
+        }
+    }
+
+    private final class Task implements Runnable {
+
+        private final boolean reader;
+        private final CountDownLatch done;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        Task(boolean reader, CountDownLatch done) {
+            this.reader = reader;
+            this.done = done;
+        }
+
+        boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+
+        @Override
+        public void run() {
+            if (claim()) {
+                try {
+                    work(reader);
+                } finally {
+                    done.countDown();
+                }
+            }
+        }
+    }
+
+    /**
+     * One bounded pool for every pipeline, so scanning many JARs at once does
+     * not start threads for each of them.
+     */
+    private static final class SharedPool {
+
+        static final ThreadPoolExecutor POOL;
+
+        static {
+            int threads = Runtime.getRuntime().availableProcessors();
+            AtomicInteger ids = new AtomicInteger();
+            POOL = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), run -> {
+                        Thread result = new Thread(run, "jar-read-" + ids.getAndIncrement());
+                        result.setDaemon(true);
+                        return result;
+                    });
+            POOL.allowCoreThreadTimeOut(true);
+        }
+    }
+}
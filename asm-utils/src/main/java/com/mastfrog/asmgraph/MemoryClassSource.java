@@ -0,0 +1,39 @@
+package com.mastfrog.asmgraph;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/**
+ * Class files held in memory, keyed by entry name.
+ *
+ * @author Tim Boudreau
+ */
+final class MemoryClassSource implements ClassSource {
+
+    private final Map<String, byte[]> classes;
+
+    MemoryClassSource(Map<String, byte[]> classes) {
+        this.classes = new TreeMap<>(classes);
+    }
+
+    @Override
+    public String toString() {
+        return "memory(" + classes.size() + ")";
+    }
+
+    @Override
+    public Spliterator<ByteBuffer> classes(Predicate<String> entryFilter) {
+        List<byte[]> result = new ArrayList<>(classes.size());
+        classes.forEach((name, bytes) -> {
+            if (entryFilter.test(name)) {
+                result.add(bytes);
+            }
+        });
+        return new IndexedSpliterator<>(result, ByteBuffer::wrap);
+    }
+}
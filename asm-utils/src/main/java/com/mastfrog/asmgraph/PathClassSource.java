@@ -0,0 +1,66 @@
+package com.mastfrog.asmgraph;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Class files under one or more root directories of some filesystem - an
+ * exploded classes directory, or the modules of the <code>jrt:/</code>
+ * filesystem.
+ *
+ * @author Tim Boudreau
+ */
+final class PathClassSource implements ClassSource {
+
+    private final String name;
+    private final Roots roots;
+
+    PathClassSource(String name, Roots roots) {
+        this.name = name;
+        this.roots = roots;
+    }
+
+    interface Roots {
+
+        List<Path> roots() throws IOException;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    @Override
+    public Spliterator<ByteBuffer> classes(Predicate<String> entryFilter) throws IOException {
+        List<Path> files = new ArrayList<>();
+        for (Path root : roots.roots()) {
+            try ( Stream<Path> str = Files.walk(root)) {
+                str.filter(p -> p.getFileName() != null
+                        && p.getFileName().toString().endsWith(".class")
+                        && entryFilter.test(entryName(root, p))
+                        && Files.isRegularFile(p))
+                        .forEach(files::add);
+            }
+        }
+        return new IndexedSpliterator<>(files,
+                file -> ByteBuffer.wrap(Files.readAllBytes(file)));
+    }
+
+    private static String entryName(Path root, Path file) {
+        StringBuilder sb = new StringBuilder();
+        for (Path p : root.relativize(file)) {
+            if (sb.length() > 0) {
+                sb.append('/');
+            }
+            sb.append(p);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,242 @@
+package com.mastfrog.asmgraph;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.nio.file.Path;
+import static java.nio.file.StandardOpenOption.READ;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Predicate;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Class files in a memory-mapped JAR, located by reading its central
+ * directory directly. Stored entries are handed out as slices of the mapping;
+ * deflated ones are inflated into a heap buffer of exactly the right size, so
+ * ASM can read its array without a copy. Since the mapping is read with
+ * absolute gets and duplicates, any number of threads can read from it at
+ * once without a lock, and no file handle needs closing once it is mapped.
+ * <p>
+ * Entries ending in <code>.jar</code> are read the same way, in place if they
+ * are stored (as Spring Boot requires) or inflated into memory if not.
+ * Zip64 archives are not supported.
+ * </p><p>
+ * Classes under <code>BOOT-INF/classes/</code> or <code>WEB-INF/classes/</code>
+ * are passed to the entry filter with that prefix removed, so filters see
+ * the same <code>com/foo/Bar.class</code> form as for any other source.
+ * <code>module-info.class</code> and the version-specific classes of a
+ * multi-release JAR under <code>META-INF/versions/</code> are skipped - only
+ * the base version of each class is read.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+final class ZipClassSource implements ClassSource {
+
+    private static final int EOCD_SIG = 0x06054b50;
+    private static final int CEN_SIG = 0x02014b50;
+    private static final int LOC_SIG = 0x04034b50;
+    private static final int EOCD_LEN = 22;
+    private static final int CEN_LEN = 46;
+    private static final int LOC_LEN = 30;
+    private static final int MAX_COMMENT = 0xFFFF;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+    private static final String[] CLASS_ROOTS = {"BOOT-INF/classes/", "WEB-INF/classes/"};
+    private static final String VERSIONS = "META-INF/versions/";
+    private static final String MODULE_INFO = "module-info.class";
+    private final Path jar;
+
+    ZipClassSource(Path jar) {
+        this.jar = jar;
+    }
+
+    @Override
+    public String toString() {
+        return jar.toString();
+    }
+
+    @Override
+    public Spliterator<ByteBuffer> classes(Predicate<String> entryFilter) throws IOException {
+        ByteBuffer mapped;
+        try ( FileChannel channel = FileChannel.open(jar, READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new ZipException(jar + " is too large to map: " + size);
+            }
+            // The mapping remains valid after the channel is closed
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        List<Entry> entries = new ArrayList<>();
+        collect(jar.toString(), mapped.order(ByteOrder.LITTLE_ENDIAN), entryFilter, entries);
+        return new IndexedSpliterator<>(entries, Entry::read);
+    }
+
+    private static void collect(String name, ByteBuffer zip, Predicate<String> entryFilter,
+            List<Entry> into) throws IOException {
+        int size = zip.limit();
+        if (size < EOCD_LEN) {
+            throw new ZipException("Not a zip file: " + name);
+        }
+        int eocd = -1;
+        for (int i = size - EOCD_LEN; i >= Math.max(0, size - EOCD_LEN - MAX_COMMENT); i--) {
+            if (zip.getInt(i) == EOCD_SIG) {
+                eocd = i;
+                break;
+            }
+        }
+        if (eocd < 0) {
+            throw new ZipException("No central directory in " + name);
+        }
+        int entryCount = Short.toUnsignedInt(zip.getShort(eocd + 10));
+        long cenSize = Integer.toUnsignedLong(zip.getInt(eocd + 12));
+        long cenOffset = Integer.toUnsignedLong(zip.getInt(eocd + 16));
+        if (entryCount == 0xFFFF || cenSize == 0xFFFFFFFFL || cenOffset == 0xFFFFFFFFL) {
+            throw new ZipException("Zip64 is not supported: " + name);
+        }
+        if (cenOffset + cenSize > eocd) {
+            throw new ZipException("Bad central directory in " + name);
+        }
+        int pos = (int) cenOffset;
+        int end = (int) (cenOffset + cenSize);
+        byte[] nameBuffer = new byte[256];
+        for (int i = 0; i < entryCount && pos + CEN_LEN <= end; i++) {
+            if (zip.getInt(pos) != CEN_SIG) {
+                throw new ZipException("Bad central directory entry " + i + " in " + name);
+            }
+            int method = Short.toUnsignedInt(zip.getShort(pos + 10));
+            int compressedSize = zip.getInt(pos + 20);
+            int uncompressedSize = zip.getInt(pos + 24);
+            int nameLength = Short.toUnsignedInt(zip.getShort(pos + 28));
+            int extraLength = Short.toUnsignedInt(zip.getShort(pos + 30));
+            int commentLength = Short.toUnsignedInt(zip.getShort(pos + 32));
+            int localOffset = zip.getInt(pos + 42);
+            if (nameLength > nameBuffer.length) {
+                nameBuffer = new byte[nameLength];
+            }
+            zip.duplicate().position(pos + CEN_LEN).get(nameBuffer, 0, nameLength);
+            pos += CEN_LEN + nameLength + extraLength + commentLength;
+            String entryName = new String(nameBuffer, 0, nameLength, UTF_8);
+            if (entryName.endsWith("/")) {
+                continue;
+            }
+            if (entryName.endsWith(".class")) {
+                String className = className(entryName);
+                if (className != null && entryFilter.test(className)) {
+                    into.add(new Entry(name, entryName, zip, method, compressedSize,
+                            uncompressedSize, localOffset));
+                }
+            } else if (entryName.endsWith(".jar")) {
+                Entry nested = new Entry(name, entryName, zip, method, compressedSize,
+                        uncompressedSize, localOffset);
+                collect(nested.toString(), nested.read().order(ByteOrder.LITTLE_ENDIAN),
+                        entryFilter, into);
+            }
+        }
+    }
+
+    /**
+     * Get the name of a class entry relative to the root its class loader
+     * would see, or null if it should be skipped.
+     */
+    static String className(String entryName) {
+        if (entryName.startsWith(VERSIONS)) {
+            return null;
+        }
+        for (String root : CLASS_ROOTS) {
+            if (entryName.startsWith(root)) {
+                entryName = entryName.substring(root.length());
+                break;
+            }
+        }
+        if (MODULE_INFO.equals(entryName)) {
+            return null;
+        }
+        return entryName;
+    }
+
+    private static final class Entry {
+
+        private final String zipName;
+        private final String name;
+        private final ByteBuffer zip;
+        private final int method;
+        private final int compressedSize;
+        private final int size;
+        private final int localOffset;
+
+        Entry(String zipName, String name, ByteBuffer zip, int method, int compressedSize,
+                int size, int localOffset) {
+            this.zipName = zipName;
+            this.name = name;
+            this.zip = zip;
+            this.method = method;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localOffset = localOffset;
+        }
+
+        @Override
+        public String toString() {
+            return zipName + "!/" + name;
+        }
+
+        ByteBuffer read() throws IOException {
+            if (localOffset < 0 || compressedSize < 0 || size < 0
+                    || localOffset + LOC_LEN > zip.limit()
+                    || zip.getInt(localOffset) != LOC_SIG) {
+                throw new ZipException("Bad local header for " + this);
+            }
+            // The local header's name and extra lengths may differ from the
+            // central directory's
+            int start = localOffset + LOC_LEN
+                    + Short.toUnsignedInt(zip.getShort(localOffset + 26))
+                    + Short.toUnsignedInt(zip.getShort(localOffset + 28));
+            if (start + compressedSize > zip.limit()) {
+                throw new ZipException("Truncated entry " + this);
+            }
+            ByteBuffer data = zip.duplicate();
+            data.position(start).limit(start + compressedSize);
+            data = data.slice();
+            switch (method) {
+                case STORED:
+                    return data;
+                case DEFLATED:
+                    return inflate(data);
+                default:
+                    throw new ZipException("Unsupported compression method "
+                            + method + " for " + this);
+            }
+        }
+
+        private ByteBuffer inflate(ByteBuffer data) throws IOException {
+            Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(data);
+                ByteBuffer result = ByteBuffer.allocate(size);
+                while (!inflater.finished() && result.hasRemaining()) {
+                    if (inflater.inflate(result) == 0
+                            && (inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new ZipException("Truncated deflate data in " + this);
+                    }
+                }
+                if (result.hasRemaining()) {
+                    throw new ZipException("Expected " + size + " bytes but got "
+                            + result.position() + " in " + this);
+                }
+                result.flip();
+                return result;
+            } catch (DataFormatException ex) {
+                throw new ZipException("Bad deflate data in " + this + ": " + ex.getMessage());
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+}
@@ -22,7 +22,6 @@ class GenericTypePairsParser implements MiniParser<Map<String, TypeName>> {
         limiter.loop(() -> {
             String name = names.parse(text);
             if (name != null) {
-                System.out.flush();
                 TypeName type = types.parse(text);
                 if (type != null) {
                     result.put(name, type);
@@ -0,0 +1,94 @@
+package com.mastfrog.asmgraph.record;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Type;
+
+/**
+ * A lambda or method reference linked through
+ * <code>LambdaMetafactory.altMetafactory()</code>, because it is serializable
+ * or must implement marker interfaces or bridge methods.
+ *
+ * @author Tim Boudreau
+ */
+public final class AltMetafactoryRecord extends DynamicInvocationRecord {
+
+    // Flag values from LambdaMetafactory
+    private static final int FLAG_SERIALIZABLE = 1;
+    private static final int FLAG_MARKERS = 2;
+    private static final int FLAG_BRIDGES = 4;
+    public final int flags;
+    public final List<String> markerInterfaces;
+    public final List<String> bridges;
+
+    public AltMetafactoryRecord(String lambdaFunctionMethodName, String methodCoercion,
+            Type samMethodType, Handle implementation, Type instantiatedMethodType,
+            int flags, List<String> markerInterfaces, List<String> bridges) {
+        super(lambdaFunctionMethodName, methodCoercion, samMethodType.getDescriptor(),
+                instantiatedMethodType.getDescriptor(), implementation.getName(),
+                implementation.getOwner(), implementation.getTag(), implementation.isInterface());
+        this.flags = flags;
+        this.markerInterfaces = Collections.unmodifiableList(new ArrayList<>(markerInterfaces));
+        this.bridges = Collections.unmodifiableList(new ArrayList<>(bridges));
+    }
+
+    /**
+     * Decode the variable-length arguments of <code>altMetafactory()</code>.
+     *
+     * @return A record, or null if the arguments are not in the expected form
+     */
+    static AltMetafactoryRecord create(String name, String descriptor, Object... args) {
+        if (args.length < 4 || !(args[0] instanceof Type) || !(args[1] instanceof Handle)
+                || !(args[2] instanceof Type) || !(args[3] instanceof Integer)) {
+            return null;
+        }
+        int flags = (Integer) args[3];
+        int ix = 4;
+        List<String> markers = new ArrayList<>();
+        List<String> bridges = new ArrayList<>();
+        if ((flags & FLAG_MARKERS) != 0) {
+            if (ix >= args.length || !(args[ix] instanceof Integer)) {
+                return null;
+            }
+            int count = (Integer) args[ix++];
+            for (int i = 0; i < count && ix < args.length; i++) {
+                if (!(args[ix] instanceof Type)) {
+                    return null;
+                }
+                markers.add(((Type) args[ix++]).getInternalName());
+            }
+        }
+        if ((flags & FLAG_BRIDGES) != 0) {
+            if (ix >= args.length || !(args[ix] instanceof Integer)) {
+                return null;
+            }
+            int count = (Integer) args[ix++];
+            for (int i = 0; i < count && ix < args.length; i++) {
+                if (!(args[ix] instanceof Type)) {
+                    return null;
+                }
+                bridges.add(((Type) args[ix++]).getDescriptor());
+            }
+        }
+        return new AltMetafactoryRecord(name, descriptor, (Type) args[0], (Handle) args[1],
+                (Type) args[2], flags, markers, bridges);
+    }
+
+    @Override
+    public BootstrapKind bootstrapKind() {
+        return BootstrapKind.ALT_LAMBDA;
+    }
+
+    public boolean isSerializable() {
+        return (flags & FLAG_SERIALIZABLE) != 0;
+    }
+
+    @Override
+    public String toString() {
+        return super.toString() + (isSerializable() ? " serializable" : "")
+                + (markerInterfaces.isEmpty() ? "" : " markers " + markerInterfaces)
+                + (bridges.isEmpty() ? "" : " bridges " + bridges);
+    }
+}
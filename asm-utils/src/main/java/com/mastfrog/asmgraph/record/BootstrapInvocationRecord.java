@@ -0,0 +1,97 @@
+package com.mastfrog.asmgraph.record;
+
+import com.mastfrog.asmgraph.asm.model.MethodSignature;
+import com.mastfrog.asmgraph.asm.model.TypeName;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.objectweb.asm.ConstantDynamic;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Type;
+
+/**
+ * An invokeDynamic instruction which is not a lambda or method reference. The
+ * inherited lambda fields describe the bootstrap method instead:
+ * <code>lambdaName</code> and <code>lambdaOwner</code> are its name and
+ * owner, <code>functionName()</code> is the call site's name and
+ * <code>functionCoercion()</code> its type; the lambda signatures are null.
+ * <p>
+ * This is also the fallback for bootstrap methods outside the JDK's standard
+ * set, so the arguments are kept in a textual form which does not depend on
+ * ASM: strings quoted, types as descriptors, method handles as
+ * <code>owner.name(desc)</code>, dynamic constants as
+ * <code>name:desc</code> followed by their bootstrap method in braces.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+public class BootstrapInvocationRecord extends DynamicInvocationRecord {
+
+    public final String bootstrapDescriptor;
+    public final List<String> arguments;
+    private final BootstrapKind kind;
+
+    public BootstrapInvocationRecord(BootstrapKind kind, String name, String descriptor,
+            Handle bootstrap, Object... arguments) {
+        super(name, descriptor, null, null, bootstrap.getName(), bootstrap.getOwner(),
+                bootstrap.getTag(), bootstrap.isInterface());
+        this.kind = kind;
+        this.bootstrapDescriptor = bootstrap.getDesc();
+        List<String> args = new ArrayList<>(arguments.length);
+        for (Object arg : arguments) {
+            args.add(argumentString(arg));
+        }
+        this.arguments = Collections.unmodifiableList(args);
+    }
+
+    @Override
+    public String toString() {
+        return kind + " " + lambdaOwner + "." + lambdaName + " for " + functionName()
+                + methodCoercion + " " + arguments;
+    }
+
+    @Override
+    public BootstrapKind bootstrapKind() {
+        return kind;
+    }
+
+    public String bootstrapName() {
+        return lambdaName;
+    }
+
+    public TypeName bootstrapOwner() {
+        return lambdaOwner();
+    }
+
+    /**
+     * The type of the call site - the arguments the instruction consumes from
+     * the stack and what it leaves there.
+     *
+     * @return A method signature
+     */
+    public MethodSignature callSiteType() {
+        return functionCoercion();
+    }
+
+    static String argumentString(Object arg) {
+        if (arg instanceof String) {
+            return '"' + (String) arg + '"';
+        } else if (arg instanceof Type) {
+            return ((Type) arg).getDescriptor();
+        } else if (arg instanceof Handle) {
+            Handle h = (Handle) arg;
+            return h.getOwner() + "." + h.getName() + (h.getDesc().startsWith("(")
+                    ? h.getDesc() : "(" + h.getDesc() + ")");
+        } else if (arg instanceof ConstantDynamic) {
+            ConstantDynamic cd = (ConstantDynamic) arg;
+            StringBuilder sb = new StringBuilder(cd.getName()).append(':')
+                    .append(cd.getDescriptor()).append('{')
+                    .append(argumentString(cd.getBootstrapMethod()));
+            for (int i = 0; i < cd.getBootstrapMethodArgumentCount(); i++) {
+                sb.append(", ").append(argumentString(cd.getBootstrapMethodArgument(i)));
+            }
+            return sb.append('}').toString();
+        }
+        return String.valueOf(arg);
+    }
+}
@@ -0,0 +1,78 @@
+package com.mastfrog.asmgraph.record;
+
+/**
+ * The standard bootstrap method an invokeDynamic instruction links through,
+ * which determines which DynamicInvocationRecord subtype describes it.
+ *
+ * @author Tim Boudreau
+ */
+public enum BootstrapKind {
+    /**
+     * <code>LambdaMetafactory.metafactory()</code> - a lambda or method
+     * reference; a plain DynamicInvocationRecord.
+     */
+    LAMBDA,
+    /**
+     * <code>LambdaMetafactory.altMetafactory()</code> - a serializable lambda,
+     * or one with marker interfaces or bridge methods; an AltMetafactoryRecord.
+     */
+    ALT_LAMBDA,
+    /**
+     * <code>StringConcatFactory.makeConcat()</code> or
+     * <code>makeConcatWithConstants()</code> - string concatenation; a
+     * StringConcatRecord.
+     */
+    STRING_CONCAT,
+    /**
+     * <code>ObjectMethods.bootstrap()</code> - the generated
+     * <code>toString()</code>, <code>equals()</code> or
+     * <code>hashCode()</code> of a record; an ObjectMethodsRecord.
+     */
+    RECORD_OBJECT_METHOD,
+    /**
+     * <code>SwitchBootstraps.typeSwitch()</code> - a pattern switch; a
+     * SwitchBootstrapRecord.
+     */
+    TYPE_SWITCH,
+    /**
+     * <code>SwitchBootstraps.enumSwitch()</code> - a switch over enum
+     * constants with patterns; a SwitchBootstrapRecord.
+     */
+    ENUM_SWITCH,
+    /**
+     * Any other bootstrap method; a BootstrapInvocationRecord.
+     */
+    OTHER;
+
+    static BootstrapKind of(String owner, String name) {
+        switch (owner) {
+            case "java/lang/invoke/LambdaMetafactory":
+                if ("metafactory".equals(name)) {
+                    return LAMBDA;
+                } else if ("altMetafactory".equals(name)) {
+                    return ALT_LAMBDA;
+                }
+                break;
+            case "java/lang/invoke/StringConcatFactory":
+                if ("makeConcat".equals(name) || "makeConcatWithConstants".equals(name)) {
+                    return STRING_CONCAT;
+                }
+                break;
+            case "java/lang/runtime/ObjectMethods":
+                if ("bootstrap".equals(name)) {
+                    return RECORD_OBJECT_METHOD;
+                }
+                break;
+            case "java/lang/runtime/SwitchBootstraps":
+                if ("typeSwitch".equals(name)) {
+                    return TYPE_SWITCH;
+                } else if ("enumSwitch".equals(name)) {
+                    return ENUM_SWITCH;
+                }
+                break;
+            default:
+                break;
+        }
+        return OTHER;
+    }
+}
@@ -3,6 +3,7 @@ package com.mastfrog.asmgraph.record;
 import com.mastfrog.asmgraph.Parsing;
 import com.mastfrog.asmgraph.asm.model.MethodSignature;
 import com.mastfrog.asmgraph.asm.model.TypeName;
+import org.objectweb.asm.Handle;
 import org.objectweb.asm.Opcodes;
 import static org.objectweb.asm.Opcodes.H_GETFIELD;
 import static org.objectweb.asm.Opcodes.H_GETSTATIC;
@@ -13,6 +14,7 @@ import static org.objectweb.asm.Opcodes.H_INVOKEVIRTUAL;
 import static org.objectweb.asm.Opcodes.H_NEWINVOKESPECIAL;
 import static org.objectweb.asm.Opcodes.H_PUTFIELD;
 import static org.objectweb.asm.Opcodes.H_PUTSTATIC;
+import org.objectweb.asm.Type;
 
 /**
  *
@@ -47,6 +49,68 @@ public class DynamicInvocationRecord implements DynamicInvocationInfo {
                 + (isInterface ? " iface" : "");
     }
 
+    /**
+     * Create a record for an invokeDynamic instruction, of the subtype
+     * matching its bootstrap method.
+     *
+     * @param name The call site name
+     * @param descriptor The call site descriptor
+     * @param bootstrap The bootstrap method
+     * @param bootstrapArguments The static arguments to the bootstrap method
+     * @return A record
+     */
+    public static DynamicInvocationRecord create(String name, String descriptor,
+            Handle bootstrap, Object... bootstrapArguments) {
+        BootstrapKind kind = BootstrapKind.of(bootstrap.getOwner(), bootstrap.getName());
+        switch (kind) {
+            case LAMBDA:
+                if (bootstrapArguments.length == 3
+                        && bootstrapArguments[0] instanceof Type
+                        && bootstrapArguments[1] instanceof Handle
+                        && bootstrapArguments[2] instanceof Type) {
+                    Handle handle = (Handle) bootstrapArguments[1];
+                    return new DynamicInvocationRecord(name, descriptor,
+                            ((Type) bootstrapArguments[0]).getInternalName(),
+                            ((Type) bootstrapArguments[2]).getInternalName(),
+                            handle.getName(), handle.getOwner(), handle.getTag(),
+                            handle.isInterface());
+                }
+                break;
+            case ALT_LAMBDA:
+                AltMetafactoryRecord alt = AltMetafactoryRecord.create(name, descriptor,
+                        bootstrapArguments);
+                if (alt != null) {
+                    return alt;
+                }
+                break;
+            case STRING_CONCAT:
+                return new StringConcatRecord(name, descriptor, bootstrap, bootstrapArguments);
+            case RECORD_OBJECT_METHOD:
+                return new ObjectMethodsRecord(name, descriptor, bootstrap, bootstrapArguments);
+            case TYPE_SWITCH:
+            case ENUM_SWITCH:
+                return new SwitchBootstrapRecord(kind, name, descriptor, bootstrap,
+                        bootstrapArguments);
+            default:
+                break;
+        }
+        // Unknown, or a standard bootstrap method with arguments in a form
+        // we do not recognize
+        return new BootstrapInvocationRecord(BootstrapKind.OTHER, name, descriptor,
+                bootstrap, bootstrapArguments);
+    }
+
+    /**
+     * The bootstrap method this instruction is linked through; for anything
+     * but <code>LAMBDA</code> and <code>ALT_LAMBDA</code>, this is a
+     * BootstrapInvocationRecord, whose lambda signatures are null.
+     *
+     * @return The kind of bootstrap method
+     */
+    public BootstrapKind bootstrapKind() {
+        return BootstrapKind.LAMBDA;
+    }
+
     @Override
     public boolean isInterface() {
         return isInterface;
@@ -84,13 +148,14 @@ public class DynamicInvocationRecord implements DynamicInvocationInfo {
 
     @Override
     public MethodSignature lambdaFunctionSignature() {
-        return Parsing.methodSignature(methodCoercionTargetSignature);
+        return methodCoercionTargetSignature == null ? null
+                : Parsing.methodSignature(methodCoercionTargetSignature);
     }
 
     @Override
     public MethodSignature otherSignature() {
         // XXX what IS this - arg 2 of bootstrapMethodArguments
-        return Parsing.methodSignature(otherSignature);
+        return otherSignature == null ? null : Parsing.methodSignature(otherSignature);
     }
 
     /*
@@ -0,0 +1,73 @@
+package com.mastfrog.asmgraph.record;
+
+import com.mastfrog.asmgraph.asm.model.TypeName;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Type;
+
+/**
+ * The generated <code>toString()</code>, <code>equals()</code> or
+ * <code>hashCode()</code> implementation of a record class, which reads its
+ * components through the getter handles passed to the bootstrap method.
+ *
+ * @author Tim Boudreau
+ */
+public final class ObjectMethodsRecord extends BootstrapInvocationRecord {
+
+    private final String recordType;
+    private final List<String> componentNames;
+    private final List<String> componentFields;
+
+    public ObjectMethodsRecord(String name, String descriptor, Handle bootstrap,
+            Object... arguments) {
+        super(BootstrapKind.RECORD_OBJECT_METHOD, name, descriptor, bootstrap, arguments);
+        recordType = arguments.length > 0 && arguments[0] instanceof Type
+                ? ((Type) arguments[0]).getInternalName() : null;
+        String names = arguments.length > 1 && arguments[1] instanceof String
+                ? (String) arguments[1] : "";
+        componentNames = names.isEmpty() ? Collections.emptyList()
+                : Collections.unmodifiableList(Arrays.asList(names.split(";")));
+        List<String> fields = new ArrayList<>(Math.max(0, arguments.length - 2));
+        for (int i = 2; i < arguments.length; i++) {
+            if (arguments[i] instanceof Handle) {
+                fields.add(((Handle) arguments[i]).getName());
+            }
+        }
+        componentFields = Collections.unmodifiableList(fields);
+    }
+
+    /**
+     * The name of the generated method - <code>toString</code>,
+     * <code>equals</code> or <code>hashCode</code>.
+     *
+     * @return A method name
+     */
+    public String generatedMethod() {
+        return functionName();
+    }
+
+    /**
+     * The record class.
+     *
+     * @return A type name, or null if the bootstrap arguments are malformed
+     */
+    public TypeName recordType() {
+        return recordType == null ? null : TypeName.simpleName(recordType);
+    }
+
+    public List<String> componentNames() {
+        return componentNames;
+    }
+
+    /**
+     * The fields of the record class the generated method reads.
+     *
+     * @return A list of field names
+     */
+    public List<String> componentFields() {
+        return componentFields;
+    }
+}
@@ -0,0 +1,44 @@
+package com.mastfrog.asmgraph.record;
+
+import java.util.List;
+import org.objectweb.asm.Handle;
+
+/**
+ * A string concatenation compiled to an invokeDynamic instruction.
+ *
+ * @author Tim Boudreau
+ */
+public final class StringConcatRecord extends BootstrapInvocationRecord {
+
+    private final String recipe;
+
+    public StringConcatRecord(String name, String descriptor, Handle bootstrap,
+            Object... arguments) {
+        super(BootstrapKind.STRING_CONCAT, name, descriptor, bootstrap, arguments);
+        recipe = "makeConcatWithConstants".equals(bootstrap.getName())
+                && arguments.length > 0 && arguments[0] instanceof String
+                ? (String) arguments[0] : null;
+    }
+
+    /**
+     * The concatenation recipe, in which <code>\1</code> marks each argument
+     * from the stack and <code>\2</code> each constant.
+     *
+     * @return The recipe, or null if the plain <code>makeConcat</code> was
+     * used, which just concatenates its arguments
+     */
+    public String recipe() {
+        return recipe;
+    }
+
+    /**
+     * The constants referenced by <code>\2</code> in the recipe, in the form
+     * described on BootstrapInvocationRecord.
+     *
+     * @return A list of constants
+     */
+    public List<String> constants() {
+        return recipe == null || arguments.isEmpty() ? arguments
+                : arguments.subList(1, arguments.size());
+    }
+}
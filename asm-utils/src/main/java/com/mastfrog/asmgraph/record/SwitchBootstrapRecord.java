@@ -0,0 +1,50 @@
+package com.mastfrog.asmgraph.record;
+
+import com.mastfrog.asmgraph.asm.model.TypeName;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Type;
+
+/**
+ * A pattern-matching switch, which the compiler implements by asking a
+ * bootstrap method for the index of the first case label that matches.
+ *
+ * @author Tim Boudreau
+ */
+public final class SwitchBootstrapRecord extends BootstrapInvocationRecord {
+
+    private final List<String> labels;
+
+    public SwitchBootstrapRecord(BootstrapKind kind, String name, String descriptor,
+            Handle bootstrap, Object... arguments) {
+        super(kind, name, descriptor, bootstrap, arguments);
+        List<String> result = new ArrayList<>(arguments.length);
+        for (Object arg : arguments) {
+            // Types are type patterns; strings are enum constant names or
+            // string cases; integers are int cases
+            result.add(arg instanceof Type ? ((Type) arg).getInternalName() : String.valueOf(arg));
+        }
+        labels = Collections.unmodifiableList(result);
+    }
+
+    /**
+     * The case labels in order, with types as internal names and constants
+     * as their value.
+     *
+     * @return A list of labels
+     */
+    public List<String> labels() {
+        return labels;
+    }
+
+    /**
+     * The static type of the value being switched on.
+     *
+     * @return A type name
+     */
+    public TypeName switchedType() {
+        return callSiteType().arguments().get(0);
+    }
+}
@@ -0,0 +1,184 @@
+package com.mastfrog.asmgraph;
+
+import com.mastfrog.asmgraph.asm.sigs.Signatures;
+import com.mastfrog.asmgraph.record.ClassRecord;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class ClassSourceTest {
+
+    @Test
+    public void testSources(@TempDir Path dir) throws Exception {
+        Path classesDir = Paths.get(Signatures.class.getResource("Signatures.class").toURI()).getParent();
+        Map<String, byte[]> classes = new TreeMap<>();
+        try ( Stream<Path> str = Files.list(classesDir)) {
+            for (Path p : str.filter(p -> p.toString().endsWith(".class"))
+                    .collect(Collectors.toList())) {
+                classes.put("com/mastfrog/asmgraph/asm/sigs/" + p.getFileName(),
+                        Files.readAllBytes(p));
+            }
+        }
+        Set<String> expected = classes.keySet().stream()
+                .map(name -> name.substring(0, name.length() - 6))
+                .collect(Collectors.toSet());
+
+        assertEquals(expected, scan(ClassSource.inMemory(classes)));
+        assertEquals(expected, scan(ClassSource.directory(classesDir)));
+
+        // A fat JAR with the classes at the top level, in a stored nested
+        // JAR and in a deflated nested JAR
+        byte[] inner = jarBytes(classes);
+        Path fat = dir.resolve("fat.jar");
+        try ( OutputStream out = Files.newOutputStream(fat);  JarOutputStream jo = new JarOutputStream(out)) {
+            write(jo, classes);
+            ZipEntry stored = new ZipEntry("BOOT-INF/lib/stored.jar");
+            CRC32 crc = new CRC32();
+            crc.update(inner);
+            stored.setMethod(ZipEntry.STORED);
+            stored.setSize(inner.length);
+            stored.setCompressedSize(inner.length);
+            stored.setCrc(crc.getValue());
+            jo.putNextEntry(stored);
+            jo.write(inner);
+            jo.closeEntry();
+            jo.putNextEntry(new ZipEntry("BOOT-INF/lib/deflated.jar"));
+            jo.write(inner);
+            jo.closeEntry();
+        }
+        long count = ClassSource.jar(fat).classes().estimateSize();
+        assertEquals(classes.size() * 3, count);
+        assertEquals(expected, scan(ClassSource.jar(fat)));
+
+        ClassSource all = ClassSource.classpath(List.of(classesDir, fat));
+        Spliterator<ByteBuffer> spl = all.classes();
+        assertEquals(classes.size() * 4, spl.estimateSize());
+        assertNotNull(spl.trySplit());
+        assertNotNull(spl.trySplit());
+        assertEquals(expected, scan(all));
+
+        Path bad = dir.resolve("bad.jar");
+        Files.write(bad, new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16,
+            17, 18, 19, 20, 21, 22, 23, 24});
+        assertThrows(IOException.class, () -> new ClassProcessor() {
+        }.process(ClassSource.jar(bad)));
+    }
+
+    @Test
+    public void testClassRootsAndSkippedEntries(@TempDir Path dir) throws Exception {
+        byte[] bytes = Files.readAllBytes(Paths.get(Signatures.class.getResource("Signatures.class").toURI()));
+        byte[] garbage = new byte[]{1, 2, 3};
+        Map<String, byte[]> entries = new TreeMap<>();
+        entries.put("org/springframework/boot/loader/Launcher.class", bytes);
+        entries.put("BOOT-INF/classes/com/foo/Boot.class", bytes);
+        entries.put("WEB-INF/classes/com/foo/Web.class", bytes);
+        entries.put("BOOT-INF/classes/module-info.class", garbage);
+        entries.put("module-info.class", garbage);
+        entries.put("META-INF/versions/11/com/foo/Boot.class", garbage);
+        entries.put("BOOT-INF/classes/com/foo/module-info.class", bytes);
+        Path fat = dir.resolve("boot.jar");
+        try ( OutputStream out = Files.newOutputStream(fat);  JarOutputStream jo = new JarOutputStream(out)) {
+            write(jo, entries);
+            jo.putNextEntry(new ZipEntry("BOOT-INF/lib/nested.jar"));
+            jo.write(jarBytes(Map.of("com/bar/Nested.class", bytes,
+                    "META-INF/versions/17/com/bar/Nested.class", garbage,
+                    "module-info.class", garbage)));
+            jo.closeEntry();
+        }
+        Set<String> names = ConcurrentHashMap.newKeySet();
+        // Would throw if any of the garbage entries were read
+        new ClassProcessor() {
+            @Override
+            public AnalysisLevel analysisLevel() {
+                return AnalysisLevel.HEADERS;
+            }
+
+            @Override
+            public boolean acceptsEntry(String entryName) {
+                names.add(entryName);
+                return true;
+            }
+        }.process(ClassSource.jar(fat));
+        assertEquals(Set.of("org/springframework/boot/loader/Launcher.class",
+                "com/foo/Boot.class", "com/foo/Web.class", "com/foo/module-info.class",
+                "com/bar/Nested.class"), names);
+    }
+
+    @Test
+    public void testJrt() throws IOException {
+        Set<String> seen = ConcurrentHashMap.newKeySet();
+        new ClassProcessor() {
+            @Override
+            public AnalysisLevel analysisLevel() {
+                return AnalysisLevel.HEADERS;
+            }
+
+            @Override
+            public boolean acceptsEntry(String entryName) {
+                return entryName.startsWith("java/util/concurrent/");
+            }
+
+            @Override
+            public void onClass(ClassRecord clazz) {
+                seen.add(clazz.name().toString());
+            }
+        }.process(ClassSource.jrt("java.base"));
+        assertTrue(seen.size() > 50, seen::toString);
+        assertTrue(seen.stream().allMatch(name -> name.replace('/', '.')
+                .startsWith("java.util.concurrent.")), seen::toString);
+    }
+
+    private static Set<String> scan(ClassSource src) throws IOException {
+        Set<String> seen = ConcurrentHashMap.newKeySet();
+        new ClassProcessor() {
+            @Override
+            public void onClass(ClassRecord clazz) {
+                seen.add(clazz.name().toString());
+            }
+        }.process(src);
+        return seen;
+    }
+
+    private static byte[] jarBytes(Map<String, byte[]> classes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try ( JarOutputStream jo = new JarOutputStream(out)) {
+            write(jo, classes);
+        }
+        return out.toByteArray();
+    }
+
+    private static void write(JarOutputStream jo, Map<String, byte[]> classes) throws IOException {
+        List<String> names = new ArrayList<>(classes.keySet());
+        for (String name : names) {
+            jo.putNextEntry(new ZipEntry(name));
+            jo.write(classes.get(name));
+            jo.closeEntry();
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package com.mastfrog.asmgraph;
+
+import com.mastfrog.asmgraph.asm.sigs.Signatures;
+import com.mastfrog.asmgraph.asm.model.TypeName;
+import com.mastfrog.asmgraph.record.ClassRecord;
+import com.mastfrog.asmgraph.record.DynamicInvocationRecord;
+import com.mastfrog.asmgraph.record.FieldAccessRecord;
+import com.mastfrog.asmgraph.record.FieldRecord;
+import com.mastfrog.asmgraph.record.InvocationRecord;
+import com.mastfrog.asmgraph.record.MethodRecord;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class JarReadPipelineTest {
+
+    @Test
+    public void testAllClassesAreParsed(@TempDir Path dir) throws Exception {
+        List<Path> classes = testClasses();
+        Path jar = jar(dir.resolve("sigs.jar"), classes, false);
+        long fds = openFiles();
+        for (boolean parallel : new boolean[]{true, false}) {
+            Set<String> seen = ConcurrentHashMap.newKeySet();
+            new ClassProcessor() {
+                @Override
+                public void onClass(ClassRecord clazz) {
+                    seen.add(clazz.name().toString());
+                }
+            }.processJar(jar, parallel);
+            assertEquals(classes.size(), seen.size(), seen::toString);
+        }
+        // More readers and workers than this machine may have, with a
+        // queue small enough that readers must parse for themselves
+        Set<String> seen = ConcurrentHashMap.newKeySet();
+        ClassProcessorDriver driver = new ClassProcessorDriver(new ClassProcessor() {
+            @Override
+            public void onClass(ClassRecord clazz) {
+                seen.add(clazz.name().toString());
+            }
+        });
+        new JarReadPipeline(jar, name -> true, () -> driver::process, 3, 2).run();
+        assertEquals(classes.size(), seen.size(), seen::toString);
+        if (fds >= 0) {
+            assertEquals(fds, openFiles(), "Zip files left open");
+        }
+    }
+
+    @Test
+    public void testCallerFinishesWithoutThePool(@TempDir Path dir) throws Exception {
+        List<Path> classes = testClasses();
+        Path jar = jar(dir.resolve("sigs.jar"), classes, false);
+        long fds = openFiles();
+        // As if every pool thread were busy with other JARs
+        List<Runnable> neverRun = new ArrayList<>();
+        Set<String> seen = ConcurrentHashMap.newKeySet();
+        AtomicInteger parsers = new AtomicInteger();
+        new JarReadPipeline(jar, name -> true, () -> {
+            parsers.incrementAndGet();
+            return new ClassProcessorDriver(new ClassProcessor() {
+                @Override
+                public void onClass(ClassRecord clazz) {
+                    seen.add(clazz.name().toString());
+                }
+            })::process;
+        }, neverRun::add, 2, 4).run();
+        assertEquals(classes.size(), seen.size(), seen::toString);
+        assertEquals(5, neverRun.size());
+        assertEquals(1, parsers.get(), "Parsers should only be created by threads that parse");
+        // Tasks taken back by the caller do nothing once the pool gets to them
+        neverRun.forEach(Runnable::run);
+        assertEquals(1, parsers.get());
+        if (fds >= 0) {
+            assertEquals(fds, openFiles(), "Zip files left open");
+        }
+    }
+
+    @Test
+    public void testTasksAreCappedAtEntryCount(@TempDir Path dir) throws Exception {
+        Path jar = jar(dir.resolve("one.jar"), testClasses().subList(0, 2), false);
+        List<Runnable> submitted = new ArrayList<>();
+        new JarReadPipeline(jar, name -> true, () -> bytes -> {
+        }, run -> {
+            submitted.add(run);
+            run.run();
+        }, 4, 16).run();
+        // Two classes - the caller takes one, so one task is enough
+        assertEquals(1, submitted.size());
+    }
+
+    @Test
+    public void testRejectedTaskClosesTheJar(@TempDir Path dir) throws Exception {
+        Path jar = jar(dir.resolve("sigs.jar"), testClasses(), false);
+        long fds = openFiles();
+        RejectedExecutionException rejection = new RejectedExecutionException("No threads");
+        AtomicInteger submitted = new AtomicInteger();
+        IOException ex = assertThrows(IOException.class, () -> new JarReadPipeline(jar,
+                name -> true, () -> bytes -> {
+                }, run -> {
+                    if (submitted.incrementAndGet() > 1) {
+                        throw rejection;
+                    }
+                    run.run();
+                }, 2, 2).run());
+        assertTrue(List.of(ex.getSuppressed()).contains(rejection), ex::toString);
+        if (fds >= 0) {
+            assertEquals(fds, openFiles(), "Zip files left open");
+        }
+    }
+
+    @Test
+    public void testAnalysisLevelAndEntryFilter(@TempDir Path dir) throws Exception {
+        List<Path> classes = testClasses();
+        Path jar = jar(dir.resolve("sigs.jar"), classes, false);
+        for (AnalysisLevel level : AnalysisLevel.values()) {
+            AtomicInteger classCount = new AtomicInteger();
+            AtomicInteger fieldsCount = new AtomicInteger();
+            AtomicInteger methodCount = new AtomicInteger();
+            AtomicInteger invocationCount = new AtomicInteger();
+            new ClassProcessor() {
+                @Override
+                public AnalysisLevel analysisLevel() {
+                    return level;
+                }
+
+                @Override
+                public boolean acceptsEntry(String entryName) {
+                    return !entryName.endsWith("/Signatures.class");
+                }
+
+                @Override
+                public void onClass(ClassRecord clazz) {
+                    assertFalse(clazz.name().toString().endsWith("Signatures"), clazz::toString);
+                    classCount.incrementAndGet();
+                }
+
+                @Override
+                public void onFields(ClassRecord clazz, List<? extends FieldRecord> fields) {
+                    fieldsCount.incrementAndGet();
+                }
+
+                @Override
+                public void onMethod(ClassRecord owningType, MethodRecord method,
+                        List<? extends InvocationRecord> invocations,
+                        List<? extends FieldAccessRecord> fld,
+                        List<DynamicInvocationRecord> invokeDynamics,
+                        Set<TypeName> referencedTypes) {
+                    methodCount.incrementAndGet();
+                    invocationCount.addAndGet(invocations.size());
+                }
+            }.processJar(jar, true);
+            assertEquals(classes.size() - 1, classCount.get(), level::toString);
+            assertEquals(level == AnalysisLevel.HEADERS ? 0 : classCount.get(),
+                    fieldsCount.get(), level::toString);
+            assertEquals(level.compareTo(AnalysisLevel.SIGNATURES) >= 0, methodCount.get() > 0,
+                    level::toString);
+            assertEquals(level == AnalysisLevel.BODIES, invocationCount.get() > 0,
+                    level::toString);
+        }
+    }
+
+    @Test
+    public void testShardedProcessorsAreThreadConfined(@TempDir Path dir) throws Exception {
+        List<Path> classes = testClasses();
+        Path jar = jar(dir.resolve("sigs.jar"), classes, false);
+        Set<String> expected = new HashSet<>();
+        for (Path p : classes) {
+            String name = p.getFileName().toString();
+            expected.add("com.mastfrog.asmgraph.asm.sigs." + name.substring(0, name.length() - 6));
+        }
+        ClassCollector fromJar = ClassProcessor.processJar(jar, ClassCollector::new,
+                ClassCollector::addAll);
+        assertEquals(expected, fromJar.names());
+        ClassCollector fromSource = ClassProcessor.process(ClassSource.jar(jar),
+                ClassCollector::new, ClassCollector::addAll);
+        assertEquals(expected, fromSource.names());
+    }
+
+    static final class ClassCollector implements ClassProcessor {
+
+        // Deliberately not thread-safe
+        private final List<String> names = new ArrayList<>();
+        private Thread thread;
+
+        @Override
+        public AnalysisLevel analysisLevel() {
+            return AnalysisLevel.HEADERS;
+        }
+
+        @Override
+        public void onClass(ClassRecord clazz) {
+            if (thread == null) {
+                thread = Thread.currentThread();
+            }
+            assertSame(thread, Thread.currentThread(), "Called from more than one thread");
+            names.add(clazz.name().toString().replace('/', '.'));
+        }
+
+        void addAll(ClassCollector other) {
+            names.addAll(other.names);
+        }
+
+        Set<String> names() {
+            Set<String> result = new HashSet<>(names);
+            assertEquals(names.size(), result.size(), "Duplicates in " + names);
+            return result;
+        }
+    }
+
+    @Test
+    public void testFailuresAreThrown(@TempDir Path dir) throws Exception {
+        Path jar = jar(dir.resolve("bad.jar"), testClasses(), true);
+        long fds = openFiles();
+        IOException ex = assertThrows(IOException.class,
+                () -> new ClassProcessor() {
+                }.processJar(jar, true));
+        assertTrue(ex.getSuppressed().length > 0, ex::toString);
+        assertThrows(IOException.class, () -> new ClassProcessor() {
+        }.processJar(jar, false));
+        if (fds >= 0) {
+            assertEquals(fds, openFiles(), "Zip files left open");
+        }
+    }
+
+    private static long openFiles() throws IOException {
+        Path fds = Paths.get("/proc/self/fd");
+        if (!Files.isDirectory(fds)) {
+            return -1;
+        }
+        try ( Stream<Path> str = Files.list(fds)) {
+            return str.count();
+        }
+    }
+
+    private static List<Path> testClasses() throws URISyntaxException, IOException {
+        Path dir = Paths.get(Signatures.class.getResource("Signatures.class").toURI()).getParent();
+        try ( Stream<Path> str = Files.list(dir)) {
+            List<Path> result = str.filter(p -> p.getFileName().toString().endsWith(".class"))
+                    .sorted().collect(Collectors.toCollection(ArrayList::new));
+            assertFalse(result.isEmpty());
+            return result;
+        }
+    }
+
+    private static Path jar(Path jar, List<Path> classes, boolean corrupt) throws IOException {
+        try ( OutputStream out = Files.newOutputStream(jar);  JarOutputStream jo = new JarOutputStream(out)) {
+            for (Path p : classes) {
+                jo.putNextEntry(new ZipEntry("com/mastfrog/asmgraph/asm/sigs/" + p.getFileName()));
+                jo.write(Files.readAllBytes(p));
+                jo.closeEntry();
+            }
+            if (corrupt) {
+                jo.putNextEntry(new ZipEntry("com/mastfrog/asmgraph/asm/sigs/Broken.class"));
+                jo.write(new byte[]{(byte) 0xCA, (byte) 0xFE, 1, 2, 3});
+                jo.closeEntry();
+            }
+        }
+        return jar;
+    }
+}
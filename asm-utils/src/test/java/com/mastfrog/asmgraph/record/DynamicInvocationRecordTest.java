@@ -0,0 +1,116 @@
+package com.mastfrog.asmgraph.record;
+
+import com.mastfrog.asmgraph.ClassProcessor;
+import com.mastfrog.asmgraph.asm.model.TypeName;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Handle;
+import static org.objectweb.asm.Opcodes.H_GETFIELD;
+import static org.objectweb.asm.Opcodes.H_INVOKESTATIC;
+import org.objectweb.asm.Type;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class DynamicInvocationRecordTest {
+
+    @Test
+    public void testCompiledInvokeDynamics() throws IOException {
+        List<DynamicInvocationRecord> all = new ArrayList<>();
+        try ( InputStream in = Sample.class.getResourceAsStream("DynamicInvocationRecordTest$Sample.class")) {
+            new ClassProcessor() {
+                @Override
+                public void onMethod(ClassRecord owningType, MethodRecord method,
+                        List<? extends InvocationRecord> invocations,
+                        List<? extends FieldAccessRecord> fld,
+                        List<DynamicInvocationRecord> invokeDynamics,
+                        Set<TypeName> referencedTypes) {
+                    all.addAll(invokeDynamics);
+                }
+            }.process(in);
+        }
+        // The serializable lambda is linked again in $deserializeLambda$
+        assertEquals(4, all.size(), all::toString);
+        DynamicInvocationRecord lambda = find(all, BootstrapKind.LAMBDA);
+        assertEquals("get", lambda.functionName());
+        assertEquals("()Ljava/lang/Object;", lambda.methodCoercionTargetSignature);
+
+        AltMetafactoryRecord alt = (AltMetafactoryRecord) find(all, BootstrapKind.ALT_LAMBDA);
+        assertTrue(alt.isSerializable(), alt::toString);
+        assertEquals("run", alt.functionName());
+
+        StringConcatRecord concat = (StringConcatRecord) find(all, BootstrapKind.STRING_CONCAT);
+        assertEquals("x=\u0001, y=\u0001", concat.recipe());
+        assertNull(concat.lambdaFunctionSignature());
+        assertEquals(2, concat.callSiteType().arguments().size());
+    }
+
+    @Test
+    public void testSyntheticBootstraps() {
+        Handle objectMethods = new Handle(H_INVOKESTATIC, "java/lang/runtime/ObjectMethods",
+                "bootstrap", "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;"
+                + "Ljava/lang/invoke/TypeDescriptor;Ljava/lang/Class;Ljava/lang/String;"
+                + "[Ljava/lang/invoke/MethodHandle;)Ljava/lang/Object;", false);
+        ObjectMethodsRecord rec = (ObjectMethodsRecord) DynamicInvocationRecord.create("toString",
+                "(Lcom/foo/Point;)Ljava/lang/String;", objectMethods,
+                Type.getObjectType("com/foo/Point"), "x;y",
+                new Handle(H_GETFIELD, "com/foo/Point", "x", "I", false),
+                new Handle(H_GETFIELD, "com/foo/Point", "y", "I", false));
+        assertEquals(BootstrapKind.RECORD_OBJECT_METHOD, rec.bootstrapKind());
+        assertEquals("toString", rec.generatedMethod());
+        assertEquals(List.of("x", "y"), rec.componentNames());
+        assertEquals(List.of("x", "y"), rec.componentFields());
+
+        Handle typeSwitch = new Handle(H_INVOKESTATIC, "java/lang/runtime/SwitchBootstraps",
+                "typeSwitch", "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;"
+                + "Ljava/lang/invoke/MethodType;[Ljava/lang/Object;)Ljava/lang/invoke/CallSite;", false);
+        SwitchBootstrapRecord sw = (SwitchBootstrapRecord) DynamicInvocationRecord.create("typeSwitch",
+                "(Ljava/lang/Object;I)I", typeSwitch, Type.getObjectType("java/lang/String"), 5);
+        assertEquals(BootstrapKind.TYPE_SWITCH, sw.bootstrapKind());
+        assertEquals(List.of("java/lang/String", "5"), sw.labels());
+
+        Handle custom = new Handle(H_INVOKESTATIC, "com/foo/Boot", "boot", "()V", false);
+        BootstrapInvocationRecord other = (BootstrapInvocationRecord) DynamicInvocationRecord.create(
+                "go", "()V", custom, "a", Type.getType("Ljava/util/List;"), 3);
+        assertEquals(BootstrapKind.OTHER, other.bootstrapKind());
+        assertEquals("boot", other.bootstrapName());
+        assertEquals(List.of("\"a\"", "Ljava/util/List;", "3"), other.arguments);
+
+        // A standard bootstrap method with unexpected arguments falls back
+        Handle metafactory = new Handle(H_INVOKESTATIC, "java/lang/invoke/LambdaMetafactory",
+                "metafactory", "()V", false);
+        assertEquals(BootstrapKind.OTHER, DynamicInvocationRecord.create("get", "()V", metafactory,
+                "nonsense").bootstrapKind());
+    }
+
+    private static DynamicInvocationRecord find(List<DynamicInvocationRecord> all, BootstrapKind kind) {
+        return all.stream().filter(rec -> rec.bootstrapKind() == kind).findFirst()
+                .orElseThrow(() -> new AssertionError("No " + kind + " in " + all));
+    }
+
+    static final class Sample {
+
+        Supplier<Object> lambda() {
+            return () -> "x";
+        }
+
+        Runnable serializable() {
+            return (Runnable & Serializable) () -> {
+            };
+        }
+
+        String concat(int x, String y) {
+            return "x=" + x + ", y=" + y;
+        }
+    }
+}
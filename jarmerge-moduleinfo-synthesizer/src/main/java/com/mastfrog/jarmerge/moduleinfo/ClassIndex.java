@@ -0,0 +1,259 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.jarmerge.moduleinfo;
+
+import com.mastfrog.jarmerge.MergeLog;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import static org.objectweb.asm.Opcodes.ACC_ABSTRACT;
+import static org.objectweb.asm.Opcodes.ACC_INTERFACE;
+import static org.objectweb.asm.Opcodes.ACC_PUBLIC;
+import static org.objectweb.asm.Opcodes.ACC_STATIC;
+import static org.objectweb.asm.Opcodes.ASM9;
+
+/**
+ * Index of every class file in every JAR being merged, populated as entries
+ * are encountered, used to answer whether a registered service
+ * implementation can actually be instantiated by ServiceLoader - which, in a
+ * module, requires a public class with either a public no-argument
+ * constructor or a public static no-argument <code>provider()</code> method.
+ * Only class headers and method signatures are read, and answers are
+ * memoized per class.
+ *
+ * @author Tim Boudreau
+ */
+final class ClassIndex {
+
+    private final Map<String, Location> locations = new ConcurrentHashMap<>();
+    // Registered name to binary name if loadable, empty if not
+    private final Map<String, Optional<String>> loadable = new ConcurrentHashMap<>();
+    private final Map<Path, JarFile> openJars = new ConcurrentHashMap<>();
+
+    /**
+     * Record the location of a class file.  If the same class is present in
+     * more than one JAR, the first one noted wins, as it does in the merged
+     * JAR.
+     *
+     * @param entryPath The path of the class file in its JAR
+     * @param jar The JAR
+     * @param entry The entry
+     */
+    void note(String entryPath, Path jar, JarEntry entry) {
+        locations.putIfAbsent(entryPath, new Location(jar, entry));
+    }
+
+    /**
+     * Check a set of service implementations in parallel, returning a map of
+     * those which ServiceLoader can instantiate to their binary names (which
+     * may differ from the name in the registration file if it used the
+     * canonical name of a nested class). Names which are not loadable are
+     * absent from the result.
+     *
+     * @param classNames Binary or canonical class names
+     * @param log A log
+     * @return A map
+     */
+    Map<String, String> loadable(Collection<String> classNames, MergeLog log) {
+        Map<String, String> result = new ConcurrentHashMap<>();
+        try {
+            classNames.parallelStream().forEach(name -> {
+                serviceBinaryName(name, log).ifPresent(binaryName -> result.put(name, binaryName));
+            });
+        } finally {
+            closeJars(log);
+        }
+        return new TreeMap<>(result);
+    }
+
+    /**
+     * Feed the CRC and size of each of the passed classes into a digest, so
+     * that changes to a service implementation which can affect whether it is
+     * loadable result in a different cache key.
+     *
+     * @param classNames Some class names
+     * @param digest A digest
+     */
+    void digest(Collection<String> classNames, MessageDigest digest) {
+        for (String name : new TreeSet<>(classNames)) {
+            Location loc = locate(name);
+            JarInfo.update(digest, name);
+            JarInfo.update(digest, loc == null ? "-"
+                    : Long.toHexString(loc.entry.getCrc()) + ":" + loc.entry.getSize());
+        }
+    }
+
+    private Optional<String> serviceBinaryName(String className, MergeLog log) {
+        Optional<String> result = loadable.get(className);
+        if (result == null) {
+            result = check(className, log);
+            Optional<String> old = loadable.putIfAbsent(className, result);
+            if (old != null) {
+                result = old;
+            }
+        }
+        return result;
+    }
+
+    private Optional<String> check(String className, MergeLog log) {
+        Location loc = locate(className);
+        if (loc == null) {
+            log.warn("Service implementation " + className + " is not present in any JAR");
+            return Optional.empty();
+        }
+        try {
+            JarFile jar = openJars.computeIfAbsent(loc.jar, p -> {
+                try {
+                    return new JarFile(p.toFile());
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+            ZipEntry entry = jar.getEntry(loc.entry.getName());
+            if (entry == null) {
+                return Optional.empty();
+            }
+            ConstructorFinder finder = new ConstructorFinder();
+            try (InputStream in = jar.getInputStream(entry)) {
+                new ClassReader(in).accept(finder,
+                        ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+            }
+            if (!finder.isLoadable()) {
+                log.warn("Omitting service registration for " + className
+                        + " which has no public no-arg constructor or provider method");
+                return Optional.empty();
+            }
+            return Optional.of(finder.binaryName);
+        } catch (IOException | UncheckedIOException ex) {
+            log.warn("Could not read " + loc.entry.getName() + " in " + loc.jar + ": " + ex);
+            return Optional.empty();
+        }
+    }
+
+    private Location locate(String className) {
+        for (String path : permutations(className)) {
+            Location result = locations.get(path);
+            if (result != null) {
+                return result;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Service files may contain binary names (com.foo.Outer$Inner) or
+     * canonical names (com.foo.Outer.Inner); for the latter, we do not know
+     * which dots delimit nesting, so try each of the possible class file names
+     * from outermost package to innermost nesting.
+     */
+    static List<String> permutations(String className) {
+        List<String> result = new ArrayList<>(3);
+        char[] chars = className.replace('.', '/').toCharArray();
+        result.add(new String(chars) + ".class");
+        for (int i = chars.length - 1; i > 0; i--) {
+            if (chars[i] == '/') {
+                chars[i] = '$';
+                result.add(new String(chars) + ".class");
+            }
+        }
+        return result;
+    }
+
+    private void closeJars(MergeLog log) {
+        for (JarFile jar : openJars.values()) {
+            try {
+                jar.close();
+            } catch (IOException ex) {
+                log.warn("Could not close " + jar.getName() + ": " + ex);
+            }
+        }
+        openJars.clear();
+    }
+
+    private static final class Location {
+
+        final Path jar;
+        final JarEntry entry;
+
+        Location(Path jar, JarEntry entry) {
+            this.jar = jar;
+            this.entry = entry;
+        }
+    }
+
+    private static final class ConstructorFinder extends ClassVisitor {
+
+        private boolean publicClass;
+        private boolean concrete;
+        private boolean noArgConstructor;
+        private boolean providerMethod;
+        private String binaryName;
+
+        ConstructorFinder() {
+            super(ASM9);
+        }
+
+        boolean isLoadable() {
+            return publicClass && (providerMethod || (concrete && noArgConstructor));
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature,
+                String superName, String[] interfaces) {
+            binaryName = name.replace('/', '.');
+            publicClass = (access & ACC_PUBLIC) != 0;
+            concrete = (access & (ACC_ABSTRACT | ACC_INTERFACE)) == 0;
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor,
+                String signature, String[] exceptions) {
+            if ((access & ACC_PUBLIC) != 0) {
+                if ("<init>".equals(name) && "()V".equals(descriptor)) {
+                    noArgConstructor = true;
+                } else if ((access & ACC_STATIC) != 0 && "provider".equals(name)
+                        && descriptor.startsWith("()L")) {
+                    providerMethod = true;
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -27,6 +27,7 @@ import java.util.Iterator;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.function.Function;
+import org.objectweb.asm.ModuleVisitor;
 
 /**
  * An exports entry for a package.
@@ -38,9 +39,9 @@ final class ExpEntry extends ModuleEntry<ExpEntry> {
     private int flags;
     private final Set<String> to = new TreeSet<>();
 
-    public ExpEntry(org.netbeans.modules.classfile.Module.ExportsEntry e) {
-        super(e.getPackage().replace('/', '.'));
-        to.addAll(e.getExportsTo());
+    ExpEntry(ModuleData.Exports e) {
+        super(e.pkg);
+        to.addAll(e.to);
     }
 
     ExpEntry(String packageName) {
@@ -71,6 +72,14 @@ final class ExpEntry extends ModuleEntry<ExpEntry> {
         sb.append(";");
     }
 
+    @Override
+    void apply(ModuleVisitor mv, Function<String, String> transformer) {
+        if ("java.base".equals(target())) {
+            return;
+        }
+        mv.visitExport(internalName(transformer.apply(target())), flags, toArray(to));
+    }
+
     @Override
     ExpEntry coalesce(ExpEntry other) {
         assert other.target.equals(target);
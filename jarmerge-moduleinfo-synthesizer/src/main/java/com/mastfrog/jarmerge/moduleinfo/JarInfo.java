@@ -23,26 +23,24 @@
  */
 package com.mastfrog.jarmerge.moduleinfo;
 
-import com.mastfrog.function.throwing.io.IOFunction;
 import com.mastfrog.jarmerge.MergeLog;
 import com.mastfrog.util.path.UnixPath;
+import com.mastfrog.jarmerge.spi.ClassNameRewriter;
 import java.io.IOException;
 import java.io.InputStream;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
 import java.util.LinkedHashSet;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
-import java.util.zip.ZipEntry;
-import org.netbeans.modules.classfile.ClassFile;
-import org.netbeans.modules.classfile.Method;
-import org.netbeans.modules.classfile.Module;
 
 /**
  * Collection of data about packages and services discovered from one JAR.
@@ -51,12 +49,13 @@ import org.netbeans.modules.classfile.Module;
  */
 final class JarInfo implements Comparable<JarInfo> {
 
-    private final Map<String, Set<String>> serviceData = new HashMap<>();
-    private final Set<String> packages = new HashSet<>();
+    // Concurrent, since entries from one JAR may be noted from several threads
+    private final Map<String, Set<String>> serviceData = new ConcurrentHashMap<>();
+    private final Set<String> packages = ConcurrentHashMap.newKeySet();
     private final Path jar;
-    private ClassFile moduleFile;
-    String moduleName;
-    private int moduleFlags = 0;
+    private volatile ModuleData module;
+    private volatile byte[] moduleDigest;
+    volatile String moduleName;
 
     JarInfo(Path jar) {
         this.jar = jar;
@@ -67,30 +66,25 @@ final class JarInfo implements Comparable<JarInfo> {
         return jar + " (" + packages + " + " + serviceData + ")";
     }
 
-    private Set<String> services(String type) {
-        return serviceData.computeIfAbsent(type, t -> new LinkedHashSet<>());
-    }
-
     void collect(JarsData data) {
-        if (moduleFile != null) {
-            Module mod = moduleFile.getModule();
-            if (mod != null) {
-                data.encounterModule(mod.getName(), mod.getVersion());
-                mod.getExportsEntries().forEach(data::encounterExport);
-                mod.getOpensEntries().forEach(data::encounterOpen);
-                mod.getUses().forEach(u -> {
-                    data.encounterUse(u.getExternalName());
-                });
-                mod.getProvidesEntries().forEach(data::encounterProvides);
-                mod.getRequiresEntries().forEach(data::encounterRequires);
-                serviceData.forEach((type, impls)
-                        -> impls.forEach(impl -> data.encounterProvides(type, impl)));
-                return;
-            }
+        ModuleData mod = module;
+        if (mod != null) {
+            data.encounterModule(mod.name(), mod.version());
+            mod.exports().forEach(data::encounterExport);
+            mod.opens().forEach(data::encounterOpen);
+            mod.uses().forEach(data::encounterUse);
+            mod.provides().forEach(data::encounterProvides);
+            mod.requires().forEach(data::encounterRequires);
+            mod.packages().forEach(data::encounterPackage);
+            packages.forEach(data::encounterPackage);
+            serviceData.forEach((type, impls)
+                    -> impls.forEach(impl -> data.encounterProvides(type, impl)));
+            return;
         }
         serviceData.forEach((type, impls)
                 -> impls.forEach(impl -> data.encounterProvides(type, impl)));
         packages.forEach(data::nonModuleExport);
+        packages.forEach(data::encounterPackage);
     }
 
     boolean hasModuleInfo() {
@@ -107,30 +101,113 @@ final class JarInfo implements Comparable<JarInfo> {
     }
 
     void readModuleInfo(JarEntry entry, JarFile file, InputStream in, MergeLog log) throws IOException {
-        ClassFile cf = new ClassFile(in);
-        org.netbeans.modules.classfile.Module mod = cf.getModule();
-        moduleName = mod.getName();
-        moduleFlags = mod.getFlags();
-        moduleFile = cf;
+        byte[] bytes = in.readAllBytes();
+        moduleDigest = sha256(bytes);
+        ModuleData mod = ModuleData.read(bytes);
+        if (mod == null) {
+            log.warn("No module attribute in " + entry.getName() + " in " + jar);
+            return;
+        }
+        // Only the decoded module attribute is retained
+        module = mod;
+        moduleName = mod.name();
+    }
+
+    /**
+     * Feed everything about this JAR which can affect the generated
+     * module-info into a digest, for use as a cache key.  The digest of the
+     * JAR's own module-info is retained rather than its bytes.
+     *
+     * @param digest A digest
+     * @param rew The class name rewriter in effect, whose renamings also shape
+     * the output
+     */
+    void digest(MessageDigest digest, ClassNameRewriter rew) {
+        update(digest, rawName());
+        ModuleData mod = module;
+        if (mod != null) {
+            digest.update(moduleDigest);
+            mod.exports().forEach(e -> update(digest, rew.apply(e.pkg)));
+            mod.opens().forEach(o -> update(digest, rew.apply(o.pkg)));
+            mod.provides().forEach(p -> {
+                update(digest, rew.apply(p.service));
+                p.implementations.forEach(impl -> update(digest, rew.apply(impl)));
+            });
+            mod.uses().forEach(u -> update(digest, rew.apply(u)));
+        }
+        update(digest, "packages");
+        for (String pkg : new TreeSet<>(packages)) {
+            update(digest, pkg);
+            update(digest, rew.apply(pkg));
+        }
+        update(digest, "services");
+        new TreeMap<>(serviceData).forEach((type, impls) -> {
+            update(digest, type);
+            update(digest, rew.apply(type));
+            // Order within a service file is significant to ServiceLoader
+            for (String impl : impls) {
+                update(digest, impl);
+                update(digest, rew.apply(impl));
+            }
+        });
+    }
+
+    static void update(MessageDigest digest, String s) {
+        digest.update(s.getBytes(UTF_8));
+        digest.update((byte) 0);
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            // Every JDK is required to provide it
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static byte[] sha256(byte[] bytes) {
+        return sha256().digest(bytes);
+    }
+
+    /**
+     * Collect the names of all implementations registered in META-INF/services
+     * files in this JAR.
+     *
+     * @param into A collection to add to
+     */
+    void serviceImplementations(Collection<? super String> into) {
+        serviceData.values().forEach(into::addAll);
+    }
+
+    void notePackage(String pkg) {
+        packages.add(pkg);
     }
 
     boolean note(JarEntry e) {
-        UnixPath up = UnixPath.get(e.getName());
-        UnixPath par = up.getParent();
-        if (par != null && !par.toString().contains("META-INF")) {
-            packages.add(par.toString('.'));
+        String pkg = packageOf(e.getName());
+        if (pkg != null) {
+            packages.add(pkg);
         }
         return false;
     }
 
+    static String packageOf(String entryName) {
+        UnixPath par = UnixPath.get(entryName).getParent();
+        if (par != null && !par.toString().contains("META-INF")) {
+            return par.toString('.');
+        }
+        return null;
+    }
+
     @Override
     public int compareTo(JarInfo o) {
         return rawName().compareToIgnoreCase(o.rawName());
     }
 
-    void readServiceFile(String service, JarFile file, JarEntry entry,
-            InputStream in, MergeLog log, boolean checkServiceConstructors) throws IOException {
-        Set<String> svcs = services(service);
+    void readServiceFile(String service, JarEntry entry, InputStream in,
+            MergeLog log) throws IOException {
+        Set<String> svcs = new LinkedHashSet<>();
         String content = new String(in.readAllBytes(), UTF_8);
         String[] lines = content.split("\n");
         for (String l : lines) {
@@ -138,55 +215,14 @@ final class JarInfo implements Comparable<JarInfo> {
             if (l.isEmpty() || l.charAt(0) == '#') {
                 continue;
             }
-            // Some hadoop jars hack ServiceLoader to get things instantiated
-            // with arguments - this will never work in the module system, so
-            // omit such unsound service registrations
-            if (!checkServiceConstructors || hasDefaultConstructor(service, file, l)) {
-                svcs.add(l);
-            }
+            svcs.add(l);
         }
-    }
-
-    private boolean hasDefaultConstructor(String service, JarFile file, String implementationClass) throws IOException {
-        Boolean result = withPermutations(service, (classFilePath) -> {
-            ZipEntry en = file.getEntry(service.replace('.', '/') + ".class");
-            if (en != null) {
-                try ( InputStream in = file.getInputStream(en)) {
-                    ClassFile cf = new ClassFile(in);
-                    for (Method m : cf.getMethods()) {
-                        if (m.isPublic()) {
-                            if ("<init>".equals(m.getName())) {
-                                return true;
-                            }
-                        }
-                    }
-                }
-            }
-            // null = keep trying other permutations
-            return null;
+        // Replace rather than mutate, so the sets we hand out are never
+        // modified concurrently
+        serviceData.merge(service, svcs, (a, b) -> {
+            Set<String> result = new LinkedHashSet<>(a);
+            result.addAll(b);
+            return result;
         });
-        return result;
-    }
-
-    private static boolean withPermutations(String serviceClassName, IOFunction<String, Boolean> f) throws IOException {
-        // There are a few legal forms a class name could be transmuted into - such ass
-        // com.foo.MyClass.MyNestedClass -> com.foo.MyClass$MyNestedClass which would
-        // be com/foo/MyClass$MyNestedClass in the jar
-        List<String> all = new ArrayList<>(3);
-        String baseSlashes = serviceClassName.replace('.', '/');
-        all.add(baseSlashes + ".class");
-        int ix = baseSlashes.lastIndexOf('.');
-        if (ix > 0 && ix < baseSlashes.length() - 1) {
-            char[] c = baseSlashes.toCharArray();
-            c[ix] = '$';
-            all.add(new String(c) + ".class");
-        }
-        for (String s : all) {
-            Boolean result = f.apply(s);
-            if (result != null) {
-                return result;
-            }
-        }
-        return false;
     }
 }
@@ -0,0 +1,254 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.jarmerge.moduleinfo;
+
+import static com.mastfrog.jarmerge.moduleinfo.ModuleInfoSynthesizer.isModuleInfo;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.nio.file.Path;
+import static java.nio.file.StandardOpenOption.READ;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the central directory of a JAR once, through a memory-mapped file,
+ * and derives the set of packages and the module-info entries in it, so
+ * that the per-entry callbacks from the merge only need a map lookup to find
+ * the package of a class.
+ * <p>
+ * Only what is needed is decoded: entry names are read from the central
+ * directory records, and nothing is inflated. JARs which need Zip64
+ * extensions (more than 65535 entries or over 4Gb) are not handled here, and
+ * the caller falls back to examining entries one at a time.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+final class JarPrescan {
+
+    private static final int EOCD_SIG = 0x06054b50;
+    private static final int CEN_SIG = 0x02014b50;
+    private static final int EOCD_LEN = 22;
+    private static final int CEN_LEN = 46;
+    private static final int MAX_COMMENT = 0xFFFF;
+    private static final byte[] CLASS_SUFFIX = ".class".getBytes(UTF_8);
+    private static final byte[] META_INF = "META-INF/".getBytes(UTF_8);
+    // Directory in slash form to package name in dot form, for directories
+    // containing classes whose path can be a Java package
+    private final Map<String, String> packageForDir;
+    private final List<String> moduleInfoEntries;
+
+    private JarPrescan(Map<String, String> packageForDir, List<String> moduleInfoEntries) {
+        this.packageForDir = packageForDir;
+        this.moduleInfoEntries = Collections.unmodifiableList(moduleInfoEntries);
+    }
+
+    @Override
+    public String toString() {
+        return packageForDir.size() + " packages, module-info " + moduleInfoEntries;
+    }
+
+    /**
+     * Get the package a class entry belongs to.
+     *
+     * @param classEntryPath The path of a class file within the JAR
+     * @return The package in dot form, or null if the entry is not in a
+     * directory which is a legal package name, or is under META-INF
+     */
+    String packageOf(String classEntryPath) {
+        int ix = classEntryPath.lastIndexOf('/');
+        if (ix <= 0) {
+            return null;
+        }
+        return packageForDir.get(classEntryPath.substring(0, ix));
+    }
+
+    List<String> moduleInfoEntries() {
+        return moduleInfoEntries;
+    }
+
+    boolean hasModuleInfo(String path) {
+        return moduleInfoEntries.contains(path);
+    }
+
+    /**
+     * Scan the central directory of a JAR.
+     *
+     * @param jar A JAR file
+     * @return A prescan, or null if the JAR uses Zip64 extensions or its
+     * central directory cannot be found
+     * @throws IOException If something goes wrong
+     */
+    static JarPrescan scan(Path jar) throws IOException {
+        try (FileChannel channel = FileChannel.open(jar, READ)) {
+            long size = channel.size();
+            if (size < EOCD_LEN) {
+                return null;
+            }
+            int tailLength = (int) Math.min(size, EOCD_LEN + MAX_COMMENT);
+            // Declared as ByteBuffer: MappedByteBuffer has covariant overrides
+            // on newer JDKs which do not exist on JDK 11
+            ByteBuffer tail = channel.map(FileChannel.MapMode.READ_ONLY,
+                    size - tailLength, tailLength);
+            tail.order(ByteOrder.LITTLE_ENDIAN);
+            int eocd = -1;
+            for (int i = tailLength - EOCD_LEN; i >= 0; i--) {
+                if (tail.getInt(i) == EOCD_SIG) {
+                    eocd = i;
+                    break;
+                }
+            }
+            if (eocd < 0) {
+                return null;
+            }
+            int entryCount = Short.toUnsignedInt(tail.getShort(eocd + 10));
+            long cenSize = Integer.toUnsignedLong(tail.getInt(eocd + 12));
+            long cenOffset = Integer.toUnsignedLong(tail.getInt(eocd + 16));
+            if (entryCount == 0xFFFF || cenSize == 0xFFFFFFFFL || cenOffset == 0xFFFFFFFFL
+                    || cenOffset + cenSize > size) {
+                // Zip64 - leave it to the per-entry path
+                return null;
+            }
+            ByteBuffer cen = channel.map(FileChannel.MapMode.READ_ONLY, cenOffset, cenSize);
+            cen.order(ByteOrder.LITTLE_ENDIAN);
+            return scan(cen, (int) cenSize, entryCount);
+        }
+    }
+
+    private static JarPrescan scan(ByteBuffer cen, int cenSize, int entryCount) {
+        Map<String, String> packageForDir = new HashMap<>();
+        List<String> moduleInfos = new ArrayList<>(2);
+        byte[] nameBuffer = new byte[256];
+        // Entries are usually grouped by directory, so remember the last one
+        // and only create a new directory string when it changes
+        String lastDir = null;
+        int pos = 0;
+        for (int i = 0; i < entryCount && pos + CEN_LEN <= cenSize; i++) {
+            if (cen.getInt(pos) != CEN_SIG) {
+                break;
+            }
+            int nameLength = Short.toUnsignedInt(cen.getShort(pos + 28));
+            int extraLength = Short.toUnsignedInt(cen.getShort(pos + 30));
+            int commentLength = Short.toUnsignedInt(cen.getShort(pos + 32));
+            if (nameLength > nameBuffer.length) {
+                nameBuffer = new byte[nameLength];
+            }
+            cen.position(pos + CEN_LEN);
+            cen.get(nameBuffer, 0, nameLength);
+            pos += CEN_LEN + nameLength + extraLength + commentLength;
+
+            int lastSlash = lastIndexOf('/', nameBuffer, nameLength);
+            if (endsWith(CLASS_SUFFIX, nameBuffer, nameLength)) {
+                if (lastSlash <= 0 || startsWith(META_INF, nameBuffer, nameLength)) {
+                    String name = new String(nameBuffer, 0, nameLength, UTF_8);
+                    if (isModuleInfo(name)) {
+                        moduleInfos.add(name);
+                    }
+                    continue;
+                }
+                if (lastDir != null && lastDir.length() == lastSlash
+                        && regionMatches(lastDir, nameBuffer)) {
+                    continue;
+                }
+                lastDir = new String(nameBuffer, 0, lastSlash, UTF_8);
+                if (!packageForDir.containsKey(lastDir) && isPossibleJavaPackage(lastDir)) {
+                    packageForDir.put(lastDir, lastDir.replace('/', '.'));
+                }
+            }
+        }
+        return new JarPrescan(packageForDir, moduleInfos);
+    }
+
+    private static int lastIndexOf(char c, byte[] bytes, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (bytes[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean endsWith(byte[] suffix, byte[] bytes, int length) {
+        if (length < suffix.length) {
+            return false;
+        }
+        for (int i = 0; i < suffix.length; i++) {
+            if (bytes[length - suffix.length + i] != suffix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean startsWith(byte[] prefix, byte[] bytes, int length) {
+        if (length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean regionMatches(String dir, byte[] bytes) {
+        // Only called when lengths match; a non-ASCII char never matches a
+        // single byte, so multi-byte names just get a fresh string
+        for (int i = 0; i < dir.length(); i++) {
+            if (dir.charAt(i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static boolean isPossibleJavaPackage(String dir) {
+        boolean segmentStart = true;
+        for (int i = 0; i < dir.length(); i++) {
+            char c = dir.charAt(i);
+            if (c == '/') {
+                if (segmentStart) {
+                    // empty segment
+                    return false;
+                }
+                segmentStart = true;
+            } else if (segmentStart) {
+                if (!Character.isJavaIdentifierStart(c)) {
+                    return false;
+                }
+                segmentStart = false;
+            } else if (!Character.isJavaIdentifierPart(c)) {
+                return false;
+            }
+        }
+        return !segmentStart;
+    }
+}
@@ -33,7 +33,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
-import org.netbeans.modules.classfile.Module;
+import org.objectweb.asm.ModuleVisitor;
+import static org.objectweb.asm.Opcodes.ACC_MANDATED;
 
 /**
  *
@@ -47,16 +48,22 @@ final class JarsData {
     final Map<String, Prov> provides = new HashMap<>();
     final Set<String> uses = new TreeSet<>();
     final Set<String> coalescedModuleNames = new TreeSet<>();
+    final Set<String> packages = new HashSet<>();
     final boolean open;
     private final boolean generateUseEntryForProvides;
     private final Set<String> automaticModulesMerged;
     private final Set<String> syntheticRequires;
+    private final String mainClass;
+    private final Map<String, String> checkedProviders;
 
-    JarsData(boolean open, boolean generateUseEntryForProvides, Set<String> automaticModulesMerged, Set<String> syntheticRequires) {
+    JarsData(boolean open, boolean generateUseEntryForProvides, Set<String> automaticModulesMerged,
+            Set<String> syntheticRequires, String mainClass, Map<String, String> checkedProviders) {
         this.open = open;
         this.generateUseEntryForProvides = generateUseEntryForProvides;
         this.automaticModulesMerged = automaticModulesMerged;
         this.syntheticRequires = syntheticRequires;
+        this.mainClass = mainClass;
+        this.checkedProviders = checkedProviders;
     }
 
     void write(StringBuilder into) {
@@ -66,18 +73,18 @@ final class JarsData {
         ClassNameRewriter rew = ClassNameRewriter.get();
         String lineHead = "\n    ";
         requires.forEach((name, req) -> {
-            if (coalescedModuleNames.contains(req.target()) || automaticModulesMerged.contains(req.target())) {
+            if (isMerged(req.target())) {
                 return;
             }
             into.append(lineHead);
             req.apply(into, rew);
             writtenRequires.add(req.target());
         });
-        // We detect attempts to bundle javax/xml packages and replace them
-        // with a synthetic requiring in of java.xml.
-        for (String synth : syntheticRequires) {
+        // We detect attempts to bundle packages the JDK provides and replace
+        // them with a synthetic requires of the JDK module that provides them
+        for (String synth : new TreeSet<>(syntheticRequires)) {
             if (writtenRequires.add(synth)) {
-                into.append(lineHead).append("require ").append(synth).append(';');
+                into.append(lineHead).append("requires ").append(synth).append(';');
             }
         }
         into.append('\n');
@@ -98,7 +105,7 @@ final class JarsData {
                 into.append(lineHead);
                 req.apply(into, rew);
             }
-            String u = canonicalize(name);
+            String u = canonicalize(rew.apply(req.service()));
             if (generateUseEntryForProvides && !usesWritten.contains(u)) {
                 usesWritten.add(u);
                 into.append(lineHead).append("uses ").append(u).append(';');
@@ -106,7 +113,7 @@ final class JarsData {
         });
         into.append('\n');
         for (String u : uses) {
-            u = canonicalize(u);
+            u = canonicalize(rew.apply(u));
             if (!usesWritten.contains(u)) {
                 usesWritten.add(u);
                 into.append(lineHead);
@@ -132,6 +139,99 @@ final class JarsData {
         }
     }
 
+    void write(ModuleVisitor mv) {
+        Set<String> usesWritten = new HashSet<>();
+        Set<String> writtenRequires = new HashSet<>();
+        ClassNameRewriter rew = ClassNameRewriter.get();
+        if (mainClass != null) {
+            mv.visitMainClass(ModuleEntry.internalName(rew.apply(mainClass)));
+        }
+        // Without a ModulePackages attribute, the JVM has to scan every entry
+        // in the JAR at startup to find the module's packages
+        modulePackages(rew).forEach(mv::visitPackage);
+        requires.forEach((name, req) -> {
+            if (isMerged(req.target())) {
+                return;
+            }
+            req.apply(mv, rew);
+            writtenRequires.add(req.target());
+        });
+        // Every module requires java.base, and the compiler always records it
+        if (writtenRequires.add("java.base")) {
+            mv.visitRequire("java.base", ACC_MANDATED, null);
+        }
+        for (String synth : new TreeSet<>(syntheticRequires)) {
+            if (writtenRequires.add(synth)) {
+                mv.visitRequire(synth, 0, null);
+            }
+        }
+        exports.forEach((name, exp) -> exp.apply(mv, rew));
+        if (!open) {
+            opens.forEach((name, op) -> op.apply(mv, rew));
+            exports.forEach((name, exp) -> {
+                if (!opens.containsKey(name)) {
+                    exp.toOpen().apply(mv, rew);
+                }
+            });
+        }
+        provides.forEach((name, prov) -> {
+            prov.apply(mv, rew);
+            String u = ModuleEntry.internalName(rew.apply(prov.service()));
+            if (generateUseEntryForProvides && usesWritten.add(u)) {
+                mv.visitUse(u);
+            }
+        });
+        for (String u : uses) {
+            u = ModuleEntry.internalName(rew.apply(u));
+            if (usesWritten.add(u)) {
+                mv.visitUse(u);
+            }
+        }
+    }
+
+    /**
+     * Computes the set of packages in the module, in internal form, after
+     * renaming. The JVM validates that every exported or opened package and
+     * the package of every service provider and the main class is among them,
+     * so those are included even if we never saw a class in them.
+     */
+    private Set<String> modulePackages(ClassNameRewriter rew) {
+        Set<String> result = new TreeSet<>();
+        for (String pkg : packages) {
+            result.add(ModuleEntry.internalName(rew.apply(pkg)));
+        }
+        exports.forEach((name, exp) -> {
+            if (!"java.base".equals(exp.target())) {
+                result.add(ModuleEntry.internalName(rew.apply(exp.target())));
+            }
+        });
+        if (!open) {
+            opens.forEach((name, op) -> result.add(ModuleEntry.internalName(rew.apply(op.target()))));
+        }
+        provides.forEach((name, prov) -> {
+            for (String impl : prov.implementations()) {
+                addPackageOf(ModuleEntry.internalName(rew.apply(impl)), result);
+            }
+        });
+        if (mainClass != null) {
+            addPackageOf(ModuleEntry.internalName(rew.apply(mainClass)), result);
+        }
+        return result;
+    }
+
+    private static void addPackageOf(String internalClassName, Set<String> into) {
+        int ix = internalClassName.lastIndexOf('/');
+        // Classes in the default package cannot be part of a module
+        if (ix > 0) {
+            into.add(internalClassName.substring(0, ix));
+        }
+    }
+
+    private boolean isMerged(String moduleName) {
+        return coalescedModuleNames.contains(moduleName)
+                || automaticModulesMerged.contains(moduleName);
+    }
+
     private <E extends ModuleEntry<E>> void addEntry(E nue, Map<String, E> map) {
         map.compute(nue.target(), (t, old) -> {
             if (old == null) {
@@ -141,11 +241,15 @@ final class JarsData {
         });
     }
 
+    void encounterPackage(String pkg) {
+        packages.add(pkg);
+    }
+
     void nonModuleExport(String pkg) {
         addEntry(new ExpEntry(pkg), exports);
     }
 
-    void encounterExport(org.netbeans.modules.classfile.Module.ExportsEntry ee) {
+    void encounterExport(ModuleData.Exports ee) {
         ExpEntry nue = new ExpEntry(ee);
         addEntry(nue, exports);
     }
@@ -154,20 +258,29 @@ final class JarsData {
         coalescedModuleNames.add(moduleName);
     }
 
-    void encounterOpen(Module.OpensEntry op) {
+    void encounterOpen(ModuleData.Exports op) {
         addEntry(new Open(op), opens);
     }
 
-    void encounterRequires(Module.RequiresEntry req) {
+    void encounterRequires(ModuleData.Requires req) {
         addEntry(new Req(req), requires);
     }
 
     void encounterProvides(String type, String impl) {
+        // Some hadoop jars hack ServiceLoader to get things instantiated
+        // with arguments - this will never work in the module system, so
+        // omit such unsound service registrations
+        if (checkedProviders != null) {
+            impl = checkedProviders.get(impl);
+            if (impl == null) {
+                return;
+            }
+        }
         Prov p = new Prov(type, impl);
         addEntry(p, provides);
     }
 
-    void encounterProvides(Module.ProvidesEntry prov) {
+    void encounterProvides(ModuleData.Provides prov) {
         Prov p = new Prov(prov);
         addEntry(p, provides);
     }
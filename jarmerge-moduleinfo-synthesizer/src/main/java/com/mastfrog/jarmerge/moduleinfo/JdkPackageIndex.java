@@ -0,0 +1,218 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.jarmerge.moduleinfo;
+
+import com.mastfrog.jarmerge.MergeLog;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Maps every package in the running JDK to the module that contains it, so
+ * that classes bundled into a JAR from packages the JDK already provides can
+ * be omitted, and a <code>requires</code> synthesized for the JDK module
+ * instead - a modular JAR containing such packages is unusable.
+ * <p>
+ * The map is built once from the <code>/packages</code> directory of the
+ * <code>jrt:/</code> filesystem, and cached on disk in a file specific to
+ * the JDK's version and location, since walking the JDK image takes a
+ * noticeable amount of time and the result only changes when the JDK does.
+ * Packages are keyed in slash form, so an entry's directory can be looked up
+ * directly.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+final class JdkPackageIndex {
+
+    private static final Map<String, JdkPackageIndex> INSTANCES = new HashMap<>();
+    private final Map<String, String> moduleForDir;
+
+    private JdkPackageIndex(Map<String, String> moduleForDir) {
+        this.moduleForDir = moduleForDir;
+    }
+
+    /**
+     * Get the index for the JDK we are running on, loading it once per
+     * process, from the cache in the passed directory if present.
+     *
+     * @param cacheDir The directory to cache the index in
+     * @param log A log
+     * @return An index
+     */
+    static JdkPackageIndex get(Path cacheDir, MergeLog log) {
+        synchronized (INSTANCES) {
+            return INSTANCES.computeIfAbsent(javaHome(), home -> load(cacheDir, log));
+        }
+    }
+
+    static Path defaultCacheDir() {
+        return Paths.get(System.getProperty("java.io.tmpdir")).resolve("moduleinfo-synthesizer");
+    }
+
+    private static String javaHome() {
+        return System.getProperty("java.home", "");
+    }
+
+    @Override
+    public String toString() {
+        return "JdkPackageIndex(" + moduleForDir.size() + " packages)";
+    }
+
+    int size() {
+        return moduleForDir.size();
+    }
+
+    /**
+     * Get the JDK module containing the package an entry is in.
+     *
+     * @param entryPath The path of a JAR entry
+     * @return A module name, or null if the entry is not in a package the JDK
+     * provides
+     */
+    String moduleForEntry(String entryPath) {
+        int ix = entryPath.lastIndexOf('/');
+        if (ix <= 0) {
+            return null;
+        }
+        return moduleForDir.get(entryPath.substring(0, ix));
+    }
+
+    /**
+     * Get the JDK module containing a package.
+     *
+     * @param pkg A package name in dot form
+     * @return A module name or null
+     */
+    String moduleForPackage(String pkg) {
+        return moduleForDir.get(pkg.replace('.', '/'));
+    }
+
+    static JdkPackageIndex load(Path cacheDir, MergeLog log) {
+        Path cacheFile = cacheDir.resolve(cacheFileName());
+        try {
+            Map<String, String> cached = read(cacheFile);
+            if (cached != null) {
+                return new JdkPackageIndex(cached);
+            }
+        } catch (IOException ex) {
+            log.warn("Could not read JDK package index " + cacheFile + ": " + ex);
+        }
+        Map<String, String> result;
+        try {
+            result = scanJdk();
+        } catch (IOException | FileSystemNotFoundException | UnsupportedOperationException ex) {
+            log.warn("Could not read packages from the jrt filesystem: " + ex);
+            return new JdkPackageIndex(Collections.emptyMap());
+        }
+        try {
+            write(result, cacheDir, cacheFile);
+        } catch (IOException ex) {
+            log.warn("Could not cache JDK package index in " + cacheFile + ": " + ex);
+        }
+        return new JdkPackageIndex(result);
+    }
+
+    private static String cacheFileName() {
+        // The version alone does not distinguish vendors' builds or jlinked
+        // images, so include a hash of the JDK's location
+        String home = javaHome();
+        return "jdk-packages-" + Runtime.version().toString().replaceAll("[^\\w.-]", "_")
+                + "-" + Integer.toHexString(home.hashCode()) + ".txt";
+    }
+
+    private static Map<String, String> scanJdk() throws IOException {
+        FileSystem jrt = FileSystems.getFileSystem(URI.create("jrt:/"));
+        Map<String, String> result = new HashMap<>(2048);
+        try (DirectoryStream<Path> packages = Files.newDirectoryStream(jrt.getPath("/packages"))) {
+            for (Path pkg : packages) {
+                // Each package directory contains a link named for each module
+                // containing it - there is only one in the boot layer
+                try (DirectoryStream<Path> modules = Files.newDirectoryStream(pkg)) {
+                    for (Path module : modules) {
+                        result.put(pkg.getFileName().toString().replace('.', '/'),
+                                module.getFileName().toString());
+                        break;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private static Map<String, String> read(Path file) throws IOException {
+        Map<String, String> result = new HashMap<>(2048);
+        try (BufferedReader reader = Files.newBufferedReader(file, UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int ix = line.indexOf('=');
+                if (ix > 0) {
+                    result.put(line.substring(0, ix), line.substring(ix + 1));
+                }
+            }
+        } catch (NoSuchFileException ex) {
+            return null;
+        }
+        return result.isEmpty() ? null : result;
+    }
+
+    private static void write(Map<String, String> map, Path dir, Path file) throws IOException {
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, "jdk-packages", ".tmp");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(tmp, UTF_8)) {
+                for (Map.Entry<String, String> e : new TreeMap<>(map).entrySet()) {
+                    writer.write(e.getKey());
+                    writer.write('=');
+                    writer.write(e.getValue());
+                    writer.write('\n');
+                }
+            }
+            try {
+                Files.move(tmp, file, ATOMIC_MOVE, REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tmp, file, REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
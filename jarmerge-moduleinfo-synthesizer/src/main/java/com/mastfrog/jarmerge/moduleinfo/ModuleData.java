@@ -0,0 +1,264 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.jarmerge.moduleinfo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ModuleVisitor;
+import static org.objectweb.asm.Opcodes.ASM9;
+
+/**
+ * Compact, immutable record of the contents of the Module attribute of a
+ * module-info.class, decoded with ASM without retaining anything else from
+ * the class file. Package names are in dotted form and class names are binary
+ * names (nested classes separated with $).
+ * <p>
+ * We do not use <code>java.lang.module.ModuleDescriptor.read()</code>, since
+ * it rejects descriptors whose providers are not in a package it knows about,
+ * which is routine for module-info files compiled without a ModulePackages
+ * attribute.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+final class ModuleData {
+
+    private final String name;
+    private final String version;
+    private final int flags;
+    private final List<Requires> requires;
+    private final List<Exports> exports;
+    private final List<Exports> opens;
+    private final List<Provides> provides;
+    private final List<String> uses;
+    private final List<String> packages;
+
+    private ModuleData(String name, String version, int flags,
+            List<Requires> requires, List<Exports> exports, List<Exports> opens,
+            List<Provides> provides, List<String> uses, List<String> packages) {
+        this.name = name;
+        this.version = version;
+        this.flags = flags;
+        this.requires = List.copyOf(requires);
+        this.exports = List.copyOf(exports);
+        this.opens = List.copyOf(opens);
+        this.provides = List.copyOf(provides);
+        this.uses = List.copyOf(uses);
+        this.packages = List.copyOf(packages);
+    }
+
+    /**
+     * Decode the module attribute of a module-info.class.
+     *
+     * @param classFile The class file bytes
+     * @return A ModuleData, or null if the class file has no Module attribute
+     */
+    static ModuleData read(byte[] classFile) {
+        Decoder decoder = new Decoder();
+        new ClassReader(classFile).accept(decoder,
+                ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        return decoder.result;
+    }
+
+    String name() {
+        return name;
+    }
+
+    String version() {
+        return version;
+    }
+
+    int flags() {
+        return flags;
+    }
+
+    List<Requires> requires() {
+        return requires;
+    }
+
+    List<Exports> exports() {
+        return exports;
+    }
+
+    List<Exports> opens() {
+        return opens;
+    }
+
+    List<Provides> provides() {
+        return provides;
+    }
+
+    List<String> uses() {
+        return uses;
+    }
+
+    /**
+     * The contents of the ModulePackages attribute, if present.
+     *
+     * @return A list of package names
+     */
+    List<String> packages() {
+        return packages;
+    }
+
+    @Override
+    public String toString() {
+        return "module " + name + (version == null ? "" : "@" + version)
+                + " requires " + requires + " exports " + exports
+                + " opens " + opens + " provides " + provides + " uses " + uses;
+    }
+
+    private static String dotted(String internalName) {
+        return internalName.replace('/', '.');
+    }
+
+    private static List<String> dotted(String[] internalNames) {
+        if (internalNames == null || internalNames.length == 0) {
+            return List.of();
+        }
+        List<String> result = new ArrayList<>(internalNames.length);
+        for (String n : internalNames) {
+            result.add(dotted(n));
+        }
+        return result;
+    }
+
+    private static List<String> names(String[] names) {
+        return names == null ? List.of() : Arrays.asList(names);
+    }
+
+    static final class Requires {
+
+        final String module;
+        final int flags;
+        final String version;
+
+        Requires(String module, int flags, String version) {
+            this.module = module;
+            this.flags = flags;
+            this.version = version;
+        }
+
+        @Override
+        public String toString() {
+            return module + (version == null ? "" : "@" + version);
+        }
+    }
+
+    /**
+     * An exports or opens entry.
+     */
+    static final class Exports {
+
+        final String pkg;
+        final int flags;
+        final List<String> to;
+
+        Exports(String pkg, int flags, List<String> to) {
+            this.pkg = pkg;
+            this.flags = flags;
+            this.to = List.copyOf(to);
+        }
+
+        @Override
+        public String toString() {
+            return to.isEmpty() ? pkg : pkg + " to " + to;
+        }
+    }
+
+    static final class Provides {
+
+        final String service;
+        final List<String> implementations;
+
+        Provides(String service, List<String> implementations) {
+            this.service = service;
+            this.implementations = List.copyOf(implementations);
+        }
+
+        @Override
+        public String toString() {
+            return service + " with " + implementations;
+        }
+    }
+
+    private static final class Decoder extends ClassVisitor {
+
+        ModuleData result;
+
+        Decoder() {
+            super(ASM9);
+        }
+
+        @Override
+        public ModuleVisitor visitModule(String name, int access, String version) {
+            List<Requires> requires = new ArrayList<>();
+            List<Exports> exports = new ArrayList<>();
+            List<Exports> opens = new ArrayList<>();
+            List<Provides> provides = new ArrayList<>();
+            List<String> uses = new ArrayList<>();
+            List<String> packages = new ArrayList<>();
+            return new ModuleVisitor(ASM9) {
+                @Override
+                public void visitPackage(String packaze) {
+                    packages.add(dotted(packaze));
+                }
+
+                @Override
+                public void visitRequire(String module, int access, String version) {
+                    requires.add(new Requires(module, access, version));
+                }
+
+                @Override
+                public void visitExport(String packaze, int access, String... modules) {
+                    exports.add(new Exports(dotted(packaze), access, names(modules)));
+                }
+
+                @Override
+                public void visitOpen(String packaze, int access, String... modules) {
+                    opens.add(new Exports(dotted(packaze), access, names(modules)));
+                }
+
+                @Override
+                public void visitUse(String service) {
+                    uses.add(dotted(service));
+                }
+
+                @Override
+                public void visitProvide(String service, String... providers) {
+                    provides.add(new Provides(dotted(service), dotted(providers)));
+                }
+
+                @Override
+                public void visitEnd() {
+                    result = new ModuleData(name, version, access, requires,
+                            exports, opens, provides, uses, packages);
+                }
+            };
+        }
+    }
+}
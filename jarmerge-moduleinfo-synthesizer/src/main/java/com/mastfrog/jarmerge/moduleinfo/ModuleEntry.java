@@ -23,7 +23,9 @@
  */
 package com.mastfrog.jarmerge.moduleinfo;
 
+import java.util.Collection;
 import java.util.function.Function;
+import org.objectweb.asm.ModuleVisitor;
 
 /**
  *
@@ -49,11 +51,21 @@ abstract class ModuleEntry<E extends ModuleEntry<E>> implements Comparable<Modul
 
     abstract void apply(StringBuilder output, Function<String, String> transformer);
 
+    abstract void apply(ModuleVisitor output, Function<String, String> transformer);
+
     @Override
     public int compareTo(ModuleEntry<?> o) {
         return target().compareTo(o.target());
     }
 
+    protected static String internalName(String what) {
+        return what.replace('.', '/');
+    }
+
+    protected static String[] toArray(Collection<String> strings) {
+        return strings.isEmpty() ? null : strings.toArray(new String[strings.size()]);
+    }
+
     protected static String canonicalize(String what) {
         int ix = what.indexOf('$');
         if (ix > 0 && ix < what.length() - 1) {
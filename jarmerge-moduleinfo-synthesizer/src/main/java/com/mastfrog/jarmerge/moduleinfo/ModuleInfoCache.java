@@ -0,0 +1,153 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.jarmerge.moduleinfo;
+
+import com.mastfrog.jarmerge.MergeLog;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A persistent, content-addressed cache of synthesized module-info.class
+ * files, keyed on a digest of everything that shapes the output, so repeated
+ * builds against an unchanged dependency set can reuse the bytes from the
+ * last one. Files are named for their key; the last-modified time of a file
+ * is updated on every hit, and when the total size of the cache exceeds its
+ * bound, the least recently used entries are deleted.
+ *
+ * @author Tim Boudreau
+ */
+final class ModuleInfoCache {
+
+    private static final String SUFFIX = ".class";
+    private final Path dir;
+    private final long maxBytes;
+
+    ModuleInfoCache(Path dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "ModuleInfoCache(" + dir + ", " + maxBytes + ")";
+    }
+
+    private Path file(String key) {
+        return dir.resolve(key + SUFFIX);
+    }
+
+    byte[] get(String key, MergeLog log) {
+        Path file = file(key);
+        try {
+            byte[] result = Files.readAllBytes(file);
+            // Our LRU order is the file time
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return result;
+        } catch (NoSuchFileException ex) {
+            return null;
+        } catch (IOException ex) {
+            log.warn("Could not read cached module-info " + file + ": " + ex);
+            return null;
+        }
+    }
+
+    void put(String key, byte[] bytes, MergeLog log) {
+        Path target = file(key);
+        try {
+            Files.createDirectories(dir);
+            // Write to a temp file and move it into place, so a concurrent
+            // build sharing the cache never sees a partially written file
+            Path tmp = Files.createTempFile(dir, key, ".tmp");
+            try {
+                Files.write(tmp, bytes);
+                try {
+                    Files.move(tmp, target, ATOMIC_MOVE, REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException ex) {
+                    Files.move(tmp, target, REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+            evict(log);
+        } catch (IOException ex) {
+            log.warn("Could not cache module-info in " + target + ": " + ex);
+        }
+    }
+
+    private void evict(MergeLog log) throws IOException {
+        List<CacheFile> files = new ArrayList<>();
+        long total = 0;
+        try (DirectoryStream<Path> str = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            for (Path p : str) {
+                try {
+                    CacheFile cf = new CacheFile(p, Files.size(p),
+                            Files.getLastModifiedTime(p).toMillis());
+                    total += cf.size;
+                    files.add(cf);
+                } catch (NoSuchFileException ex) {
+                    // evicted by another process
+                }
+            }
+        }
+        if (total <= maxBytes) {
+            return;
+        }
+        files.sort(null);
+        for (CacheFile cf : files) {
+            if (total <= maxBytes) {
+                break;
+            }
+            log.debug("Evict cached module-info " + cf.path);
+            Files.deleteIfExists(cf.path);
+            total -= cf.size;
+        }
+    }
+
+    private static final class CacheFile implements Comparable<CacheFile> {
+
+        final Path path;
+        final long size;
+        final long lastModified;
+
+        CacheFile(Path path, long size, long lastModified) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        @Override
+        public int compareTo(CacheFile o) {
+            return Long.compare(lastModified, o.lastModified);
+        }
+    }
+}
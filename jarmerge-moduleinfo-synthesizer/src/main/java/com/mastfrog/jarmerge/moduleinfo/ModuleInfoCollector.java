@@ -26,36 +26,36 @@ package com.mastfrog.jarmerge.moduleinfo;
 import com.mastfrog.jarmerge.MergeLog;
 import com.mastfrog.jarmerge.builtin.ConcatenateMetaInfServices;
 import static com.mastfrog.jarmerge.moduleinfo.ModuleInfoSynthesizer.isModuleInfo;
+import static com.mastfrog.jarmerge.moduleinfo.ModuleInfoSynthesizer.isPossibleJavaPackage;
+import com.mastfrog.jarmerge.spi.ClassNameRewriter;
 import com.mastfrog.jarmerge.spi.Coalescer;
-import static com.mastfrog.util.collections.CollectionUtils.immutableSetOf;
 import com.mastfrog.util.file.FileUtils;
 import static com.mastfrog.util.file.FileUtils.deltree;
-import com.mastfrog.util.path.UnixPath;
-import com.mastfrog.util.streams.Streams;
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Writer;
+import java.math.BigInteger;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import static java.util.Collections.emptySet;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
-import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.jar.Attributes;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
-import java.util.jar.JarInputStream;
 import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
 import javax.tools.Diagnostic;
@@ -72,28 +72,97 @@ import static javax.tools.ToolProvider.getSystemJavaCompiler;
  */
 class ModuleInfoCollector implements Coalescer {
 
-    private final Map<Path, JarInfo> infos = new TreeMap<>();
-    private final Set<Path> processed = new HashSet<>();
+    // Bump when the generated output changes for the same inputs
+    private static final String CACHE_KEY_VERSION = "3";
+    // All state is held in concurrent collections, and each JAR gets its own
+    // JarInfo, so JARs can be scanned concurrently without a shared lock; the
+    // JarInfos are merged when the module-info is written
+    private final Map<Path, JarInfo> infos = new ConcurrentHashMap<>();
+    private final Set<Path> processed = ConcurrentHashMap.newKeySet();
     private final String moduleName;
     private final boolean zeroDates;
     private final ConcatenateMetaInfServices servicesConcat = new ConcatenateMetaInfServices();
-    private final Map<String, Coalescer> serviceCoalescers = new HashMap<>();
-    boolean written;
+    private final Map<String, Coalescer> serviceCoalescers = new ConcurrentHashMap<>();
+    volatile boolean written;
     private final boolean open;
     private final boolean checkServiceConstructors;
     private final boolean generateUses;
-
-    private final Set<Path> jarsExaminedForAutomaticModules = new HashSet<>();
-    private final Set<String> automaticModulesMerged = new HashSet<>();
-    private final Set<String> syntheticRequires = new HashSet<>();
+    private final boolean validateWithJavac;
+    private ModuleInfoCache cache;
+    private String mainClass;
+    private boolean prescan;
+    private PackageIndex packageIndex;
+    private final Map<Path, Optional<JarPrescan>> prescans = new ConcurrentHashMap<>();
+    // Only populated if we are checking service constructors
+    private final ClassIndex classIndex = new ClassIndex();
+
+    private final Set<Path> jarsExaminedForAutomaticModules = ConcurrentHashMap.newKeySet();
+    private final Set<String> automaticModulesMerged = ConcurrentHashMap.newKeySet();
+    private final Set<String> syntheticRequires = ConcurrentHashMap.newKeySet();
 
     ModuleInfoCollector(String name, boolean zeroDates, boolean open,
-            boolean checkServiceConstructors, boolean generateUses) {
+            boolean checkServiceConstructors, boolean generateUses,
+            boolean validateWithJavac) {
         this.moduleName = name;
         this.zeroDates = zeroDates;
         this.open = open;
         this.checkServiceConstructors = checkServiceConstructors;
         this.generateUses = generateUses;
+        this.validateWithJavac = validateWithJavac;
+    }
+
+    ModuleInfoCollector packageIndex(PackageIndex packageIndex) {
+        this.packageIndex = packageIndex;
+        return this;
+    }
+
+    ModuleInfoCollector prescan(boolean prescan) {
+        this.prescan = prescan;
+        return this;
+    }
+
+    ModuleInfoCollector mainClass(String mainClass) {
+        this.mainClass = mainClass;
+        return this;
+    }
+
+    ModuleInfoCollector cache(ModuleInfoCache cache) {
+        this.cache = cache;
+        return this;
+    }
+
+    private JarPrescan prescanned(Path jar, MergeLog log) {
+        if (!prescan) {
+            return null;
+        }
+        Optional<JarPrescan> result = prescans.get(jar);
+        if (result == null) {
+            // Scan outside the map, so I/O does not hold a lock on its bin;
+            // if two threads race to scan the same JAR, the first one wins
+            Optional<JarPrescan> scanned = scan(jar, log);
+            result = prescans.putIfAbsent(jar, scanned);
+            if (result == null) {
+                result = scanned;
+            }
+        }
+        return result.orElse(null);
+    }
+
+    private static Optional<JarPrescan> scan(Path jar, MergeLog log) {
+        try {
+            JarPrescan result = JarPrescan.scan(jar);
+            if (result == null) {
+                log.debug("Cannot prescan " + jar + "; examining entries individually");
+            } else {
+                log.debug("Prescanned " + jar + ": " + result);
+            }
+            return Optional.ofNullable(result);
+        } catch (IOException | RuntimeException ex) {
+            // A corrupt central directory can fail with an index or buffer
+            // exception; either way, fall back to examining each entry
+            log.warn("Could not prescan " + jar + "; examining entries individually: " + ex);
+            return Optional.empty();
+        }
     }
 
     private JarInfo infoFor(Path path) {
@@ -118,108 +187,186 @@ class ModuleInfoCollector implements Coalescer {
         }
     }
 
+    /**
+     * If we know from the prescan that the JAR has a module-info.class at the
+     * root, prefer that over any in META-INF/versions, rather than using
+     * whichever we happen to encounter first.
+     */
+    private boolean supersededModuleInfo(Path jar, String path, MergeLog log) {
+        if ("module-info.class".equals(path)) {
+            return false;
+        }
+        JarPrescan scan = prescanned(jar, log);
+        return scan != null && scan.hasModuleInfo("module-info.class");
+    }
+
     protected boolean read(Path jar, JarEntry entry, JarFile file, InputStream in, MergeLog log) throws Exception {
         collectAutomaticModuleName(jar, file);
-        if (isModuleInfo(entry.getName()) && processed.add(jar)) {
+        if (isModuleInfo(entry.getName()) && !supersededModuleInfo(jar, entry.getName(), log)
+                && processed.add(jar)) {
             log.warn("Will coalesce entry {0} in {1}", entry.getName(), jar);
             infoFor(jar).readModuleInfo(entry, file, in, log);
             return true;
         } else if (entry.getName().startsWith("META-INF/services/") && !entry.isDirectory()) {
-            noteServiceFile(entry.getName(), file, jar, entry, in, log);
+            noteServiceFile(entry.getName(), jar, entry, in, log);
             return true;
         }
         return false;
     }
 
     protected void write(JarEntry entry, JarOutputStream out, MergeLog log) throws Exception {
-        if (zeroDates) {
+        if (zeroDates && entry != null) {
             entry.setTime(0);
         }
-        // Okay, how to do this?  Could create a JFS, generate a fake moduleinfo source and
-        // then compile it?
+        try {
+            String key = null;
+            byte[] moduleInfo = null;
+            if (cache != null) {
+                key = cacheKey();
+                moduleInfo = cache.get(key, log);
+                if (moduleInfo != null) {
+                    log.log("Reusing cached module-info " + key);
+                }
+            }
+            if (moduleInfo == null) {
+                ModuleInfoGenerator gen = new ModuleInfoGenerator(this.infos.values(),
+                        automaticModulesMerged, syntheticRequires).open(open)
+                        .mainClass(mainClass);
+                if (checkServiceConstructors) {
+                    gen.checkedProviders(classIndex.loadable(serviceImplementations(), log));
+                }
+                moduleInfo = gen.moduleInfoClass(moduleName, generateUses);
+                if (validateWithJavac) {
+                    validateWithJavac(gen, log);
+                }
+                if (cache != null) {
+                    cache.put(key, moduleInfo, log);
+                }
+            }
+            out.write(moduleInfo);
+        } finally {
+            written = true;
+        }
+    }
+
+    private Set<String> serviceImplementations() {
+        Set<String> result = new TreeSet<>();
+        for (JarInfo info : infos.values()) {
+            info.serviceImplementations(result);
+        }
+        return result;
+    }
+
+    /**
+     * Computes a digest of everything that shapes the generated module-info -
+     * settings, and the module descriptor, packages and services of each JAR.
+     * Whether we validate is included, so that a build which asks for
+     * validation never reuses output that was not validated.
+     */
+    private String cacheKey() {
+        MessageDigest digest = JarInfo.sha256();
+        JarInfo.update(digest, CACHE_KEY_VERSION);
+        JarInfo.update(digest, moduleName);
+        JarInfo.update(digest, "open=" + open);
+        JarInfo.update(digest, "uses=" + generateUses);
+        JarInfo.update(digest, "validate=" + validateWithJavac);
+        JarInfo.update(digest, "main=" + mainClass);
+        JarInfo.update(digest, "checkCtors=" + checkServiceConstructors);
+        if (checkServiceConstructors) {
+            classIndex.digest(serviceImplementations(), digest);
+        }
+        JarInfo.update(digest, "unrequire");
+        new TreeSet<>(automaticModulesMerged).forEach(amm -> JarInfo.update(digest, amm));
+        JarInfo.update(digest, "requires");
+        new TreeSet<>(syntheticRequires).forEach(req -> JarInfo.update(digest, req));
+        List<JarInfo> all = new ArrayList<>(infos.values());
+        Collections.sort(all);
+        ClassNameRewriter rew = ClassNameRewriter.get();
+        for (JarInfo info : all) {
+            info.digest(digest, rew);
+        }
+        return String.format("%064x", new BigInteger(1, digest.digest()));
+    }
+
+    /**
+     * Generates the equivalent module-info.java and compiles it, failing if
+     * the compiler rejects it, as a sanity check of what we emitted.
+     */
+    private void validateWithJavac(ModuleInfoGenerator gen, MergeLog log) throws Exception {
+        JavaCompiler comp = getSystemJavaCompiler();
+        if (comp == null) {
+            log.warn("No java compiler available in {0} - cannot validate "
+                    + "the generated module-info", System.getProperty("java.home"));
+            return;
+        }
         Path tmp = FileUtils.newTempDir("minfo-synth");
         log.warn("Building synthetic module-info.java in " + tmp);
-        log.warn("Writing to {0}", tmp);
         boolean failed = false;
         try {
             Path src = tmp.resolve("src");
             Path classes = tmp.resolve("classes");
             Files.createDirectories(src);
             Files.createDirectories(classes);
-            for (Map.Entry<Path, JarInfo> e : infos.entrySet()) {
-                try (final JarInputStream in = new JarInputStream(new BufferedInputStream(Files.newInputStream(e.getKey(), StandardOpenOption.READ)))) {
-                    JarEntry je = in.getNextJarEntry();
-                    while (je != null) {
-                        if (je.isDirectory()) {
-                            Path dir = classes.resolve(je.getName());
-                            if (!Files.exists(dir)) {
-                                Files.createDirectories(dir);
-                            }
-                        } else {
-                            Path file = classes.resolve(je.getName());
-                            if (!Files.exists(file.getParent())) {
-                                Files.createDirectories(file.getParent());
-                            }
-                            try (final OutputStream outs = new BufferedOutputStream(Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))) {
-                                Streams.copy(in, outs);
-                            }
-                        }
-                        je = in.getNextJarEntry();
-                    }
-                }
-            }
-            ModuleInfoGenerator gen = new ModuleInfoGenerator(this.infos.values(), automaticModulesMerged, syntheticRequires);
-            gen.open(open);
             String content = gen.moduleInfo(moduleName, generateUses);
-            System.out.println("Generated module-info.java:\n");
-            System.out.println(content);
-            System.out.println();
+            log.debug("Generated module-info.java:\n" + content);
             Path moduleInfoSourceFile = src.resolve("module-info.java");
             try (final OutputStream mout = Files.newOutputStream(moduleInfoSourceFile, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
                 mout.write(content.getBytes(StandardCharsets.UTF_8));
             }
             DiagLog diagLog = new DiagLog(log);
             log.warn("Begin compile of synthetic module-info.java");
-            Set<String> options = immutableSetOf("-g");
+            // Rather than extracting every jar so the compiler can see the
+            // packages we export and the services we provide, patch the jars
+            // into the module being compiled, so javac reads their central
+            // directories in-place and only opens the classes it needs
+            List<String> options = Arrays.asList("-g", "--patch-module",
+                    moduleName + "=" + patchPath());
             Set<String> classNamesForAnnoProcessing = emptySet();
-            JavaCompiler comp = getSystemJavaCompiler();
-            StandardJavaFileManager mgr = comp.getStandardFileManager(diagLog, Locale.US, StandardCharsets.UTF_8);
-            mgr.setLocation(StandardLocation.CLASS_OUTPUT, Collections.singleton(classes.toFile()));
-            mgr.setLocation(StandardLocation.SOURCE_PATH, Collections.singleton(src.toFile()));
-            Iterable<? extends JavaFileObject> toCompile = mgr.getJavaFileObjects(moduleInfoSourceFile);
-            JavaCompiler.CompilationTask task = comp.getTask(diagLog, mgr, diagLog, options, classNamesForAnnoProcessing, toCompile);
-            Boolean result = task.call();
-            if (!result) {
-                failed = true;
-                throw new IllegalStateException("Compile failed.  Generated module info is "
-                        + "left behind in " + tmp + " for examination");
-            }
-            log.debug("Copy " + classes.resolve("module-info.class") + " into JAR");
-            try (final InputStream is = Files.newInputStream(classes.resolve("module-info.class"), StandardOpenOption.READ)) {
-                Streams.copy(is, out, 512);
+            try (StandardJavaFileManager mgr = comp.getStandardFileManager(diagLog, Locale.US, StandardCharsets.UTF_8)) {
+                mgr.setLocation(StandardLocation.CLASS_OUTPUT, Collections.singleton(classes.toFile()));
+                mgr.setLocation(StandardLocation.SOURCE_PATH, Collections.singleton(src.toFile()));
+                Iterable<? extends JavaFileObject> toCompile = mgr.getJavaFileObjects(moduleInfoSourceFile);
+                JavaCompiler.CompilationTask task = comp.getTask(diagLog, mgr, diagLog, options, classNamesForAnnoProcessing, toCompile);
+                Boolean result = task.call();
+                if (!result) {
+                    failed = true;
+                    throw new IllegalStateException("Compile failed.  Generated module info is "
+                            + "left behind in " + tmp + " for examination");
+                }
             }
+            log.log("Synthetic module-info.java compiled cleanly");
         } finally {
-            written = true;
             if (!failed) {
                 deltree(tmp);
             }
         }
     }
 
-    Coalescer wrap(String path, Path inJar, JarEntry entry, MergeLog log) {
-        Coalescer del;
-        if (serviceCoalescers.containsKey(path)) {
-            del = serviceCoalescers.get(path);
-            return del;
-        } else {
-            Coalescer coa = this.servicesConcat.findCoalescer(path, inJar, entry, log);
-            if (coa != null) {
-                del = new WrappedCoalescer(coa);
-                serviceCoalescers.put(path, del);
-                return del;
+    private String patchPath() {
+        StringBuilder sb = new StringBuilder();
+        for (Path jar : new TreeSet<>(infos.keySet())) {
+            if (sb.length() > 0) {
+                sb.append(File.pathSeparatorChar);
             }
+            sb.append(jar.toAbsolutePath());
+        }
+        return sb.toString();
+    }
+
+    Coalescer wrap(String path, Path inJar, JarEntry entry, MergeLog log) {
+        Coalescer result = serviceCoalescers.get(path);
+        if (result != null) {
+            return result;
         }
-        return null;
+        return serviceCoalescers.computeIfAbsent(path, p -> {
+            Coalescer coa;
+            // ConcatenateMetaInfServices is not thread-safe; this is only
+            // reached once per distinct service file
+            synchronized (servicesConcat) {
+                coa = servicesConcat.findCoalescer(p, inJar, entry, log);
+            }
+            return coa == null ? null : new WrappedCoalescer(coa);
+        });
     }
 
     void unrequire(Set<String> unrequired) {
@@ -313,12 +460,42 @@ class ModuleInfoCollector implements Coalescer {
         }
     }
 
+    /**
+     * Note a class file, recording its package.  If the JAR was prescanned,
+     * this is just a lookup of the package for the entry's directory.
+     */
+    void noteClass(String path, Path inJar, JarEntry entry, MergeLog log) {
+        if (checkServiceConstructors) {
+            classIndex.note(path, inJar, entry);
+        }
+        JarPrescan scan = prescanned(inJar, log);
+        if (scan != null) {
+            String pkg = scan.packageOf(path);
+            if (pkg != null) {
+                notePackage(pkg, inJar, log);
+            }
+        } else if (isPossibleJavaPackage(path)) {
+            notePackage(path, inJar, entry, log);
+        }
+    }
+
     void notePackage(String path, Path inJar, JarEntry entry, MergeLog log) {
         if (path.indexOf('/') >= 0 && path.startsWith("META-INF")) {
             return;
         }
-        log.debug("Note " + UnixPath.get(entry.getName()).toString('.'));
-        infoFor(inJar).note(entry);
+        String pkg = JarInfo.packageOf(entry.getName());
+        if (pkg != null) {
+            log.debug("Note " + pkg);
+            notePackage(pkg, inJar, log);
+        }
+    }
+
+    private void notePackage(String pkg, Path inJar, MergeLog log) {
+        PackageIndex index = packageIndex;
+        if (index != null) {
+            pkg = index.note(pkg, inJar, log);
+        }
+        infoFor(inJar).notePackage(pkg);
     }
 
     @Override
@@ -345,11 +522,10 @@ class ModuleInfoCollector implements Coalescer {
         }
     }
 
-    void noteServiceFile(String path, JarFile file, Path inJar, JarEntry entry, InputStream in, MergeLog log) throws IOException {
+    void noteServiceFile(String path, Path inJar, JarEntry entry, InputStream in, MergeLog log) throws IOException {
         String service = path.substring("META-INF/services/".length());
         JarInfo info = infoFor(inJar);
-        info.readServiceFile(service, file, entry, in, log,
-                checkServiceConstructors);
+        info.readServiceFile(service, entry, in, log);
     }
 
 }
@@ -27,7 +27,13 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.ModuleVisitor;
+import static org.objectweb.asm.Opcodes.ACC_MODULE;
+import static org.objectweb.asm.Opcodes.ACC_OPEN;
+import static org.objectweb.asm.Opcodes.V9;
 
 /**
  *
@@ -39,6 +45,8 @@ final class ModuleInfoGenerator {
     private boolean open = true;
     private final Set<String> automaticModulesMerged;
     private final Set<String> syntheticRequires;
+    private String mainClass;
+    private Map<String, String> checkedProviders;
 
     public ModuleInfoGenerator(Collection<? extends JarInfo> info,
             Set<String> automaticModulesMerged, Set<String> syntheticRequires) {
@@ -57,11 +65,62 @@ final class ModuleInfoGenerator {
         return this;
     }
 
-    public String moduleInfo(String moduleName, boolean generateUses) {
-        JarsData jd = new JarsData(open, generateUses, automaticModulesMerged, syntheticRequires);
+    /**
+     * Set the main class recorded in the ModuleMainClass attribute.
+     *
+     * @param mainClass A fully qualified class name, or null
+     * @return this
+     */
+    ModuleInfoGenerator mainClass(String mainClass) {
+        this.mainClass = mainClass;
+        return this;
+    }
+
+    /**
+     * Set the result of checking service implementations from
+     * META-INF/services files; only those present in the map, which maps the
+     * name in the service file to the binary name of the class, get provides
+     * entries.
+     *
+     * @param checkedProviders A map, or null if no checking was done
+     * @return this
+     */
+    ModuleInfoGenerator checkedProviders(Map<String, String> checkedProviders) {
+        this.checkedProviders = checkedProviders;
+        return this;
+    }
+
+    private JarsData jarsData(boolean generateUses) {
+        JarsData jd = new JarsData(open, generateUses, automaticModulesMerged,
+                syntheticRequires, mainClass, checkedProviders);
         for (JarInfo ji : info) {
             ji.collect(jd);
         }
+        return jd;
+    }
+
+    /**
+     * Generate the bytes of a module-info.class directly, without going
+     * through source code and the compiler.
+     *
+     * @param moduleName The module name
+     * @param generateUses Whether to generate uses entries for all provided
+     * services
+     * @return The class file bytes
+     */
+    public byte[] moduleInfoClass(String moduleName, boolean generateUses) {
+        JarsData jd = jarsData(generateUses);
+        ClassWriter cw = new ClassWriter(0);
+        cw.visit(V9, ACC_MODULE, "module-info", null, null, null);
+        ModuleVisitor mv = cw.visitModule(moduleName, open ? ACC_OPEN : 0, null);
+        jd.write(mv);
+        mv.visitEnd();
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    public String moduleInfo(String moduleName, boolean generateUses) {
+        JarsData jd = jarsData(generateUses);
         StringBuilder sb = new StringBuilder();
         if (open) {
             sb.append("open module ");
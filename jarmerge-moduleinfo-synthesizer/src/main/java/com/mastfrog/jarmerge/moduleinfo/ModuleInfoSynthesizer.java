@@ -34,6 +34,7 @@ import com.mastfrog.jarmerge.spi.JarFilter;
 import com.mastfrog.util.path.UnixPath;
 import com.mastfrog.util.service.ServiceProvider;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import static java.util.Collections.emptySet;
 import java.util.HashSet;
 import java.util.Set;
@@ -71,23 +72,81 @@ public final class ModuleInfoSynthesizer implements JarFilter<Coalescer> {
      */
     public static final String PROP_GENERATE_USES
             = "generateUses";
+    /**
+     * The module-info.class is emitted directly as bytecode; if set, also
+     * generate the equivalent module-info.java and compile it with javac (which
+     * requires running on a JDK), failing the build if it does not compile.
+     */
+    public static final String PROP_VALIDATE_WITH_JAVAC
+            = "validateModuleInfo";
+    /**
+     * Directory in which to cache synthesized module-info.class files across
+     * builds, keyed on a digest of the module name, settings and the module
+     * descriptors, packages and service registrations of the merged JARs.  No
+     * caching is done unless set.  The index of the JDK's packages used by
+     * <code>omitJdkPackages</code> is cached here too, or in the system temp
+     * directory if this is not set.
+     */
+    public static final String PROP_MODULE_INFO_CACHE
+            = "moduleInfoCache";
+    /**
+     * Maximum total size in bytes of the module-info cache directory; least
+     * recently used entries are deleted when it is exceeded.
+     */
+    public static final String PROP_MODULE_INFO_CACHE_MAX_BYTES
+            = "moduleInfoCacheMaxBytes";
+    /**
+     * If true (the default), read the central directory of each JAR once to
+     * find its packages, rather than deriving the package of each class file
+     * as it is encountered.
+     */
+    public static final String PROP_PRESCAN
+            = "prescanJars";
+    /**
+     * If true (the default), omit any classes or resources in packages which
+     * the JDK we are running on provides, and generate a
+     * <code>requires</code> for the JDK module that provides them instead.
+     * If false, only <code>javax.xml</code> gets that treatment.
+     */
+    public static final String PROP_OMIT_JDK_PACKAGES
+            = "omitJdkPackages";
+    /**
+     * What to do when a package is found in more than one JAR, or in a JAR and
+     * the JDK: <code>ignore</code>, <code>warn</code> (the default) or
+     * <code>fail</code> - failing while JARs are still being scanned, before
+     * any output is written.
+     */
+    public static final String PROP_SPLIT_PACKAGES
+            = "splitPackages";
+    private static final long DEFAULT_MODULE_INFO_CACHE_MAX_BYTES
+            = 8 * 1024 * 1024;
     private final JarMerge merge;
-    private boolean zeroDates;
-    private ModuleInfoCollector collector;
+    private volatile boolean zeroDates;
+    private volatile ModuleInfoCollector collector;
+    private volatile JdkPackageIndex jdkPackages;
     // We need these because we may be called ahead of these
     private final OmitExcludedPrefixes prefixSkip;
     private final OmitExcludedPatterns patternSkip;
+    // Consulted for every entry, on several threads, so resolved once here
+    private final boolean omitJdkPackages;
+    private final Path jdkPackageCacheDir;
 
     public ModuleInfoSynthesizer() {
         this.merge = null;
         prefixSkip = new OmitExcludedPrefixes();
         patternSkip = new OmitExcludedPatterns();
+        omitJdkPackages = true;
+        jdkPackageCacheDir = JdkPackageIndex.defaultCacheDir();
     }
 
     private ModuleInfoSynthesizer(JarMerge merge) {
         this.merge = merge;
         prefixSkip = new OmitExcludedPrefixes(merge);
         patternSkip = new OmitExcludedPatterns(merge);
+        String omitJdk = merge.extensionProperties.get(PROP_OMIT_JDK_PACKAGES);
+        omitJdkPackages = omitJdk == null || !"false".equals(omitJdk.trim());
+        Path cacheDir = cacheDir();
+        jdkPackageCacheDir = cacheDir == null ? JdkPackageIndex.defaultCacheDir() : cacheDir;
     }
 
     @Override
@@ -125,6 +184,68 @@ public final class ModuleInfoSynthesizer implements JarFilter<Coalescer> {
         return val == null ? true : "true".equals(val.trim());
     }
 
+    boolean validateWithJavac() {
+        if (merge == null) {
+            return false;
+        }
+        return "true".equals(merge.extensionProperties.get(PROP_VALIDATE_WITH_JAVAC));
+    }
+
+    boolean prescan() {
+        if (merge == null) {
+            return true;
+        }
+        String val = merge.extensionProperties.get(PROP_PRESCAN);
+        return val == null || !"false".equals(val.trim());
+    }
+
+    String mainClass() {
+        if (merge == null || merge.mainClass == null || merge.mainClass.isBlank()) {
+            return null;
+        }
+        return merge.mainClass.trim();
+    }
+
+    ModuleInfoCache cache() {
+        Path dir = cacheDir();
+        return dir == null ? null : new ModuleInfoCache(dir, cacheMaxBytes());
+    }
+
+    private Path cacheDir() {
+        if (merge == null) {
+            return null;
+        }
+        String dir = merge.extensionProperties.get(PROP_MODULE_INFO_CACHE);
+        if (dir == null || dir.isBlank()) {
+            return null;
+        }
+        return Paths.get(dir.trim());
+    }
+
+    Path jdkPackageCacheDir() {
+        return jdkPackageCacheDir;
+    }
+
+    long cacheMaxBytes() {
+        String max = merge == null ? null
+                : merge.extensionProperties.get(PROP_MODULE_INFO_CACHE_MAX_BYTES);
+        if (max == null || max.isBlank()) {
+            return DEFAULT_MODULE_INFO_CACHE_MAX_BYTES;
+        }
+        long result;
+        try {
+            result = Long.parseLong(max.trim());
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Bad value for "
+                    + PROP_MODULE_INFO_CACHE_MAX_BYTES + ": '" + max + "'", ex);
+        }
+        if (result <= 0) {
+            throw new IllegalArgumentException(PROP_MODULE_INFO_CACHE_MAX_BYTES
+                    + " must be greater than zero: '" + max + "'");
+        }
+        return result;
+    }
+
     boolean checkServiceConstructors() {
         if (merge == null) {
             return false;
@@ -141,18 +262,23 @@ public final class ModuleInfoSynthesizer implements JarFilter<Coalescer> {
         if (path.contains("module-info.class")) {
             return false;
         }
-        // These are provided by java.xml in the JDK and will ALWAYS result in
-        // an unusable module jar
-        if (path.startsWith("javax/xml")) {
-            if (this.collector != null) {
-                this.collector.addRequire("java.xml");
+        // Packages the JDK provides will ALWAYS result in an unusable
+        // module jar, so omit them and require the JDK module instead
+        String jdkModule = jdkModuleFor(path, log);
+        if (jdkModule != null) {
+            // The entry we omit may be the first we see, so we need the
+            // collector to exist to record the requires
+            if (merge != null) {
+                collector().addRequire(jdkModule);
             }
+            log.debug("Omit " + path + " from " + inJar.getFileName()
+                    + " - provided by " + jdkModule);
             return true;
         }
 //        return "module-info.class".equals(path);
         boolean result = patternSkip.omit(path, inJar, log) || prefixSkip.omit(path, inJar, log);
         if (result) {
-            System.out.println("OMIT " + path + " from " + inJar.getFileName());
+            log.debug("Omit " + path + " from " + inJar.getFileName());
         }
         return result;
     }
@@ -201,13 +327,24 @@ public final class ModuleInfoSynthesizer implements JarFilter<Coalescer> {
         return "module.name.not.passed";
     }
 
-    private synchronized ModuleInfoCollector collector() {
-        if (collector == null) {
-            collector = new ModuleInfoCollector(moduleName(), zeroDates, open(),
-                    checkServiceConstructors(), generatedUses());
-            collector.unrequire(unrequired());
+    private ModuleInfoCollector collector() {
+        ModuleInfoCollector result = collector;
+        if (result == null) {
+            synchronized (this) {
+                result = collector;
+                if (result == null) {
+                    result = new ModuleInfoCollector(moduleName(), zeroDates, open(),
+                            checkServiceConstructors(), generatedUses(), validateWithJavac())
+                            .cache(cache())
+                            .mainClass(mainClass())
+                            .prescan(prescan())
+                            .packageIndex(packageIndex());
+                    result.unrequire(unrequired());
+                    collector = result;
+                }
+            }
         }
-        return collector;
+        return result;
     }
 
     Set<String> unrequired() {
@@ -233,15 +370,44 @@ public final class ModuleInfoSynthesizer implements JarFilter<Coalescer> {
                 || MODULE_INFO_VERSIONS_PATTERN.matcher(path).find();
     }
 
-    @Override
-    public synchronized Coalescer coalescer(String path, Path inJar, JarEntry entry, MergeLog log) {
-        // These are provided by java.xml in the JDK and will ALWAYS result in
-        // an unusable module jar
-        if (path.startsWith("javax/xml")) {
+    private String jdkModuleFor(String path, MergeLog log) {
+        if (!omitJdkPackages()) {
+            return path.startsWith("javax/xml") ? "java.xml" : null;
+        }
+        return jdkPackages(log).moduleForEntry(path);
+    }
+
+    private JdkPackageIndex jdkPackages(MergeLog log) {
+        JdkPackageIndex result = jdkPackages;
+        if (result == null) {
+            synchronized (this) {
+                result = jdkPackages;
+                if (result == null) {
+                    jdkPackages = result = JdkPackageIndex.get(jdkPackageCacheDir, log);
+                }
+            }
+        }
+        return result;
+    }
+
+    PackageIndex packageIndex() {
+        PackageIndex.Policy policy = PackageIndex.Policy.parse(merge == null ? null
+                : merge.extensionProperties.get(PROP_SPLIT_PACKAGES));
+        if (policy == PackageIndex.Policy.IGNORE) {
             return null;
         }
+        // If we are omitting JDK packages, they never get as far as the
+        // index, so there is no need to check them again
+        return new PackageIndex(policy, omitJdkPackages ? null : jdkPackageCacheDir);
+    }
+
+    boolean omitJdkPackages() {
+        return omitJdkPackages;
+    }
+
+    @Override
+    public Coalescer coalescer(String path, Path inJar, JarEntry entry, MergeLog log) {
         if (omit(path, inJar, log)) {
-            System.out.println("SKIP " + path + " " + inJar.getFileName());
             return null;
         }
         if (isModuleInfo(entry.getName())) {
@@ -250,14 +416,14 @@ public final class ModuleInfoSynthesizer implements JarFilter<Coalescer> {
             if (path.startsWith("META-INF/services")) {
                 Coalescer wrapped = collector().wrap(path, inJar, entry, log);
                 return wrapped;
-            } else if (!path.startsWith("META-INF") && path.endsWith(".class") && isPossibleJavaPackage(path)) {
-                collector().notePackage(path, inJar, entry, log);
+            } else if (!path.startsWith("META-INF") && path.endsWith(".class")) {
+                collector().noteClass(path, inJar, entry, log);
             }
         }
         return null;
     }
 
-    private static boolean isPossibleJavaPackage(String path) {
+    static boolean isPossibleJavaPackage(String path) {
         UnixPath parentPath = UnixPath.get(path).getParent();
         if (parentPath == null) {
             return false;
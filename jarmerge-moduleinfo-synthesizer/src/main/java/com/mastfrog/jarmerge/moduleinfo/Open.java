@@ -27,7 +27,7 @@ import java.util.Iterator;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.function.Function;
-import org.netbeans.modules.classfile.Module;
+import org.objectweb.asm.ModuleVisitor;
 
 /**
  * An opens entry from a discovered module-info or synthesized based on
@@ -39,9 +39,9 @@ final class Open extends ModuleEntry<Open> {
 
     private final Set<String> opensTo = new TreeSet<>();
 
-    Open(Module.OpensEntry oe) {
-        super(oe.getPackage().replace('/', '.'));
-        opensTo.addAll(oe.getOpensTo());
+    Open(ModuleData.Exports oe) {
+        super(oe.pkg);
+        opensTo.addAll(oe.to);
     }
 
     Open(String what) {
@@ -71,4 +71,8 @@ final class Open extends ModuleEntry<Open> {
         sb.append(';');
     }
 
+    @Override
+    void apply(ModuleVisitor mv, Function<String, String> transformer) {
+        mv.visitOpen(internalName(transformer.apply(target)), 0, toArray(opensTo));
+    }
 }
@@ -0,0 +1,192 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.jarmerge.moduleinfo;
+
+import com.mastfrog.jarmerge.MergeLog;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records which JARs contribute classes to each package, as JARs are scanned,
+ * so that packages split across JARs, and packages which the JDK also
+ * provides, are reported as soon as they are seen, rather than being
+ * silently coalesced into one export and discovered when the merged JAR
+ * fails to resolve.
+ * <p>
+ * Each JAR gets a small integer id, and each package a bit set of the ids of
+ * the JARs containing it. Package names are interned here, so every JarInfo
+ * shares one string instance per package.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+final class PackageIndex {
+
+    private final Map<Path, Integer> jarIds = new ConcurrentHashMap<>();
+    private final List<Path> jarsById = new ArrayList<>();
+    private final Map<String, PackageRecord> packages = new ConcurrentHashMap<>();
+    private final Path jdkCacheDir;
+    private volatile JdkPackageIndex jdk;
+    private final Policy policy;
+
+    /**
+     * Create a package index.
+     *
+     * @param policy What to do on encountering a split package
+     * @param jdkCacheDir The directory the JDK's package index is cached in,
+     * or null not to check packages against those in the JDK - not needed if
+     * JDK packages are being omitted, since they never reach us
+     */
+    PackageIndex(Policy policy, Path jdkCacheDir) {
+        this.policy = policy;
+        this.jdkCacheDir = jdkCacheDir;
+    }
+
+    private String jdkModule(String pkg, MergeLog log) {
+        if (jdkCacheDir == null) {
+            return null;
+        }
+        JdkPackageIndex result = jdk;
+        if (result == null) {
+            synchronized (this) {
+                result = jdk;
+                if (result == null) {
+                    jdk = result = JdkPackageIndex.get(jdkCacheDir, log);
+                }
+            }
+        }
+        return result.moduleForPackage(pkg);
+    }
+
+    enum Policy {
+        IGNORE,
+        WARN,
+        FAIL;
+
+        static Policy parse(String val) {
+            if (val == null || val.isBlank()) {
+                return WARN;
+            }
+            try {
+                return valueOf(val.trim().toUpperCase());
+            } catch (IllegalArgumentException ex) {
+                throw new IllegalArgumentException("Bad value for "
+                        + ModuleInfoSynthesizer.PROP_SPLIT_PACKAGES + ": '" + val
+                        + "' - should be one of " + Arrays.toString(values()), ex);
+            }
+        }
+    }
+
+    private int idFor(Path jar) {
+        return jarIds.computeIfAbsent(jar, j -> {
+            synchronized (jarsById) {
+                jarsById.add(j);
+                return jarsById.size() - 1;
+            }
+        });
+    }
+
+    private Path jar(int id) {
+        synchronized (jarsById) {
+            return jarsById.get(id);
+        }
+    }
+
+    /**
+     * Record that a JAR contains a package, reporting it according to the
+     * policy if this makes it a split package or it overlaps the JDK.
+     *
+     * @param pkg A package name in dot form
+     * @param jar The JAR
+     * @param log The log
+     * @return The canonical instance of the package name
+     * @throws IllegalStateException if the policy is FAIL and the package is
+     * split or provided by the JDK
+     */
+    String note(String pkg, Path jar, MergeLog log) {
+        int id = idFor(jar);
+        PackageRecord rec = packages.computeIfAbsent(pkg, p -> new PackageRecord(p,
+                jdkModule(p, log)));
+        int count;
+        synchronized (rec) {
+            if (rec.jars.get(id)) {
+                return rec.name;
+            }
+            rec.jars.set(id);
+            count = rec.jars.cardinality();
+        }
+        if (rec.jdkModule != null && count == 1) {
+            report("Package " + pkg + " in " + jar.getFileName()
+                    + " is also provided by the JDK module " + rec.jdkModule, log);
+        } else if (count == 2) {
+            report("Split package " + pkg + " is contributed by " + jarsFor(rec), log);
+        }
+        return rec.name;
+    }
+
+    private String jarsFor(PackageRecord rec) {
+        BitSet ids;
+        synchronized (rec) {
+            ids = (BitSet) rec.jars.clone();
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = ids.nextSetBit(0); i >= 0; i = ids.nextSetBit(i + 1)) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(jar(i).getFileName());
+        }
+        return sb.toString();
+    }
+
+    private void report(String msg, MergeLog log) {
+        switch (policy) {
+            case FAIL:
+                log.error(msg);
+                throw new IllegalStateException(msg);
+            case WARN:
+                log.warn(msg);
+                break;
+            default:
+                log.debug(msg);
+        }
+    }
+
+    private static final class PackageRecord {
+
+        final String name;
+        final String jdkModule;
+        final BitSet jars = new BitSet();
+
+        PackageRecord(String name, String jdkModule) {
+            this.name = name;
+            this.jdkModule = jdkModule;
+        }
+    }
+}
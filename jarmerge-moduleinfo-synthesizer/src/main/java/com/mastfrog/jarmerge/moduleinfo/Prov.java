@@ -23,12 +23,13 @@
  */
 package com.mastfrog.jarmerge.moduleinfo;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.function.Function;
-import org.netbeans.modules.classfile.ClassName;
-import org.netbeans.modules.classfile.Module;
+import org.objectweb.asm.ModuleVisitor;
 
 /**
  * A provides entry for a given service class, either discovered in a
@@ -39,18 +40,32 @@ import org.netbeans.modules.classfile.Module;
  */
 class Prov extends ModuleEntry<Prov> {
 
+    // Binary names (nested classes separated with $), which are what the
+    // class file needs - canonicalized only when generating source
+    private final String service;
     private final Set<String> implementations = new TreeSet<>();
 
-    Prov(Module.ProvidesEntry p) {
-        super(canonicalize(p.getService().toString()));
-        for (ClassName cn : p.getImplementations()) {
-            implementations.add(cn.getExternalName());
-        }
+    Prov(ModuleData.Provides p) {
+        this(p.service);
+        implementations.addAll(p.implementations);
     }
 
     Prov(String type, String impl) {
-        super(canonicalize(type));
-        this.implementations.add(canonicalize(impl));
+        this(type);
+        this.implementations.add(impl);
+    }
+
+    private Prov(String service) {
+        super(canonicalize(service));
+        this.service = service;
+    }
+
+    String service() {
+        return service;
+    }
+
+    Set<String> implementations() {
+        return implementations;
     }
 
     @Override
@@ -62,11 +77,11 @@ class Prov extends ModuleEntry<Prov> {
 
     @Override
     void apply(StringBuilder sb, Function<String, String> transformer) {
-        sb.append("provides ").append(transformer.apply(target)).append(" with ");
+        sb.append("provides ").append(canonicalize(transformer.apply(service))).append(" with ");
         for (Iterator<String> it = implementations.iterator(); it.hasNext();) {
             sb.append("\n         ");
             String i = it.next();
-            sb.append(transformer.apply(canonicalize(i)));
+            sb.append(canonicalize(transformer.apply(i)));
             if (it.hasNext()) {
                 sb.append(", ");
             }
@@ -74,4 +89,12 @@ class Prov extends ModuleEntry<Prov> {
         sb.append(';');
     }
 
+    @Override
+    void apply(ModuleVisitor mv, Function<String, String> transformer) {
+        List<String> impls = new ArrayList<>(implementations.size());
+        for (String impl : implementations) {
+            impls.add(internalName(transformer.apply(impl)));
+        }
+        mv.visitProvide(internalName(transformer.apply(service)), toArray(impls));
+    }
 }
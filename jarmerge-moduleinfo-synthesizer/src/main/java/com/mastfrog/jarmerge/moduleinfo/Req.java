@@ -24,8 +24,11 @@
 package com.mastfrog.jarmerge.moduleinfo;
 
 import java.util.function.Function;
-import org.netbeans.modules.classfile.Access;
-import org.netbeans.modules.classfile.Module;
+import org.objectweb.asm.ModuleVisitor;
+import static org.objectweb.asm.Opcodes.ACC_MANDATED;
+import static org.objectweb.asm.Opcodes.ACC_STATIC_PHASE;
+import static org.objectweb.asm.Opcodes.ACC_SYNTHETIC;
+import static org.objectweb.asm.Opcodes.ACC_TRANSITIVE;
 
 /**
  * A requires entry discovered in a module-info.class or otherwise synthesized.
@@ -37,9 +40,12 @@ final class Req extends ModuleEntry<Req> {
     private int flags;
     private String ver;
 
-    Req(Module.RequiresEntry r) {
-        super(r.getModule());
-        ver = r.getVersion();
+    Req(ModuleData.Requires r) {
+        super(r.module);
+        ver = r.version;
+        // Synthetic and mandated are not expressible in source, and are
+        // recomputed when the descriptor is emitted
+        flags = r.flags & (ACC_TRANSITIVE | ACC_STATIC_PHASE);
     }
 
     public String toString() {
@@ -74,16 +80,16 @@ final class Req extends ModuleEntry<Req> {
     @Override
     void apply(StringBuilder sb, Function<String, String> ignored) {
         sb.append("requires ");
-        if ((flags & Access.TRANSITIVE) != 0) {
+        if ((flags & ACC_TRANSITIVE) != 0) {
             sb.append("transitive ");
         }
-        if ((flags & Access.STATIC_PHASE) != 0) {
+        if ((flags & ACC_STATIC_PHASE) != 0) {
             sb.append("static ");
         }
-        if ((flags & Access.SYNTHETIC) != 0) {
+        if ((flags & ACC_SYNTHETIC) != 0) {
             sb.append("synthetic ");
         }
-        if ((flags & Access.MANDATED) != 0) {
+        if ((flags & ACC_MANDATED) != 0) {
             sb.append("mandated ");
         }
         sb.append(target());
@@ -95,4 +101,10 @@ final class Req extends ModuleEntry<Req> {
         sb.append(" // ").append(this);
     }
 
+    @Override
+    void apply(ModuleVisitor mv, Function<String, String> ignored) {
+        String name = target();
+        mv.visitRequire(name, "java.base".equals(name) ? ACC_MANDATED : flags, ver);
+    }
+
 }
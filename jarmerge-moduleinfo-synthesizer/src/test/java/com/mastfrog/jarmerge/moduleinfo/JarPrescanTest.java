@@ -0,0 +1,79 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.jarmerge.moduleinfo;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class JarPrescanTest {
+
+    @Test
+    public void testPrescan(@TempDir Path dir) throws Exception {
+        Path jar = dir.resolve("x.jar");
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar))) {
+            out.setComment("A comment, to make sure we search backwards for the end record");
+            for (String name : Arrays.asList("com/", "com/a/", "com/a/A.class", "com/a/B.class",
+                    "com/a/b/C$D.class", "com/a/res.properties", "Default.class",
+                    "not-a-package/X.class", "com/été/E.class", "module-info.class",
+                    "META-INF/versions/11/module-info.class", "META-INF/versions/11/com/v/V.class",
+                    "META-INF/services/", "META-INF/services/com.a.A", "com/a/Z.class")) {
+                JarEntry e = new JarEntry(name);
+                // extra data and comments shift the records
+                e.setComment("comment for " + name);
+                e.setExtra(new byte[]{(byte) 0xCA, (byte) 0xFE, 1, 0, 7});
+                out.putNextEntry(e);
+                out.closeEntry();
+            }
+        }
+        JarPrescan scan = JarPrescan.scan(jar);
+        assertNotNull(scan);
+        assertEquals("com.a", scan.packageOf("com/a/A.class"));
+        assertEquals("com.a", scan.packageOf("com/a/Z.class"));
+        assertEquals("com.a.b", scan.packageOf("com/a/b/C$D.class"));
+        assertEquals("com.été", scan.packageOf("com/été/E.class"));
+        assertNull(scan.packageOf("Default.class"));
+        assertNull(scan.packageOf("not-a-package/X.class"));
+        assertNull(scan.packageOf("META-INF/versions/11/com/v/V.class"));
+        assertEquals(Arrays.asList("module-info.class", "META-INF/versions/11/module-info.class"),
+                scan.moduleInfoEntries());
+        assertTrue(scan.hasModuleInfo("module-info.class"));
+    }
+
+    @Test
+    public void testNotAZip(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("x.jar");
+        Files.write(file, new byte[100]);
+        assertNull(JarPrescan.scan(file));
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.jarmerge.moduleinfo;
+
+import com.mastfrog.jarmerge.moduleinfo.ModuleInfoGeneratorTest.NullLog;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class JdkPackageIndexTest {
+
+    @Test
+    public void testIndexIsBuiltAndCached(@TempDir Path dir) throws Exception {
+        JdkPackageIndex index = JdkPackageIndex.load(dir, new NullLog());
+        assertLookups(index);
+        List<Path> files;
+        try (Stream<Path> str = Files.list(dir)) {
+            files = str.collect(Collectors.toList());
+        }
+        assertEquals(1, files.size(), files::toString);
+
+        JdkPackageIndex cached = JdkPackageIndex.load(dir, new NullLog());
+        assertEquals(index.size(), cached.size());
+        assertLookups(cached);
+    }
+
+    @Test
+    public void testOneIndexPerJdk(@TempDir Path dir) throws Exception {
+        JdkPackageIndex index = JdkPackageIndex.get(dir, new NullLog());
+        assertSame(index, JdkPackageIndex.get(dir.resolve("other"), new NullLog()));
+        assertLookups(index);
+    }
+
+    private static void assertLookups(JdkPackageIndex index) {
+        assertEquals("java.xml", index.moduleForEntry("javax/xml/parsers/DocumentBuilder.class"));
+        assertEquals("java.xml", index.moduleForEntry("org/w3c/dom/Node.class"));
+        assertEquals("java.xml", index.moduleForEntry("org/xml/sax/ContentHandler.class"));
+        assertEquals("java.transaction.xa", index.moduleForEntry("javax/transaction/xa/XAResource.class"));
+        assertEquals("java.logging", index.moduleForEntry("java/util/logging/Logger.class"));
+        assertNull(index.moduleForEntry("javax/xml/bind/JAXBContext.class"),
+                "JAXB is no longer part of the JDK");
+        assertNull(index.moduleForEntry("com/mastfrog/Foo.class"));
+        assertNull(index.moduleForEntry("Foo.class"));
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.jarmerge.moduleinfo;
+
+import com.mastfrog.jarmerge.MergeLog;
+import com.mastfrog.jarmerge.moduleinfo.ModuleInfoGeneratorTest.NullLog;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.module.ModuleDescriptor;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarInputStream;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import static org.objectweb.asm.Opcodes.ACC_ABSTRACT;
+import static org.objectweb.asm.Opcodes.ACC_INTERFACE;
+import static org.objectweb.asm.Opcodes.ACC_PUBLIC;
+import static org.objectweb.asm.Opcodes.ACC_STATIC;
+import static org.objectweb.asm.Opcodes.ACONST_NULL;
+import static org.objectweb.asm.Opcodes.ALOAD;
+import static org.objectweb.asm.Opcodes.ARETURN;
+import static org.objectweb.asm.Opcodes.INVOKESPECIAL;
+import static org.objectweb.asm.Opcodes.RETURN;
+import static org.objectweb.asm.Opcodes.V11;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class ModuleInfoCollectorTest {
+
+    private static final String SERVICE_FILE = "META-INF/services/com.a.Svc";
+
+    @Test
+    public void testValidationCompilesAgainstJarsInPlace(@TempDir Path dir) throws Exception {
+        Path jar = dir.resolve("a.jar");
+        writeJar(jar, "com.a.impl.SvcImpl");
+        byte[] moduleInfo = synthesize(jar);
+        Set<String> packages = new HashSet<>(Arrays.asList("com.a", "com.a.impl"));
+        ModuleDescriptor desc = ModuleDescriptor.read(ByteBuffer.wrap(moduleInfo), () -> packages);
+        assertEquals("com.a.merged", desc.name());
+        assertEquals(new TreeSet<>(Arrays.asList("com.a.Svc")), desc.uses());
+        assertEquals(1, desc.provides().size());
+    }
+
+    @Test
+    public void testValidationRejectsMissingProvider(@TempDir Path dir) throws Exception {
+        Path jar = dir.resolve("a.jar");
+        writeJar(jar, "com.a.impl.Missing");
+        assertThrows(IllegalStateException.class, () -> synthesize(jar));
+    }
+
+    @Test
+    public void testCacheReusesOutputForSameInputs(@TempDir Path dir) throws Exception {
+        Path jar = dir.resolve("a.jar");
+        writeJar(jar, "com.a.impl.SvcImpl");
+        Path cacheDir = dir.resolve("cache");
+        byte[] first = synthesize(jar, new ModuleInfoCache(cacheDir, 1024 * 1024));
+        List<Path> cached = cacheFiles(cacheDir);
+        assertEquals(1, cached.size(), cached::toString);
+        assertArrayEquals(first, Files.readAllBytes(cached.get(0)));
+        // Corrupt the cached copy so we can tell it is what is returned
+        byte[] marker = "cached".getBytes(UTF_8);
+        Files.write(cached.get(0), marker);
+        assertArrayEquals(marker, synthesize(jar, new ModuleInfoCache(cacheDir, 1024 * 1024)));
+
+        // Different service registration, different key
+        Path other = dir.resolve("b.jar");
+        writeJar(other, "com.a.impl.SvcImpl$Nested");
+        Files.move(other, jar, StandardCopyOption.REPLACE_EXISTING);
+        assertThrows(IllegalStateException.class, () -> synthesize(jar,
+                new ModuleInfoCache(cacheDir, 1024 * 1024)));
+    }
+
+    @Test
+    public void testCacheEvictsLeastRecentlyUsed(@TempDir Path dir) throws Exception {
+        MergeLog log = new NullLog();
+        ModuleInfoCache cache = new ModuleInfoCache(dir, 20);
+        cache.put("a", new byte[8], log);
+        Files.setLastModifiedTime(dir.resolve("a.class"), FileTime.fromMillis(1000));
+        cache.put("b", new byte[8], log);
+        Files.setLastModifiedTime(dir.resolve("b.class"), FileTime.fromMillis(2000));
+        assertNotNull(cache.get("a", log));
+        cache.put("c", new byte[8], log);
+        assertNotNull(cache.get("a", log));
+        assertNull(cache.get("b", log));
+        assertNotNull(cache.get("c", log));
+    }
+
+    @Test
+    public void testServiceConstructorsCheckedAcrossJars(@TempDir Path dir) throws Exception {
+        Path a = dir.resolve("a.jar");
+        Path b = dir.resolve("b.jar");
+        Map<String, byte[]> aClasses = new LinkedHashMap<>();
+        aClasses.put("com/a/Svc.class", iface("com/a/Svc"));
+        writeJar(a, aClasses, "com.b.Good\ncom.b.NeedsArgs\ncom.b.Outer.Nested\n"
+                + "com.b.WithProvider\ncom.b.Missing\n");
+        Map<String, byte[]> bClasses = new LinkedHashMap<>();
+        bClasses.put("com/b/Good.class", impl("com/b/Good", "com/a/Svc"));
+        bClasses.put("com/b/NeedsArgs.class", impl("com/b/NeedsArgs", "com/a/Svc",
+                "(Ljava/lang/String;)V"));
+        bClasses.put("com/b/Outer$Nested.class", impl("com/b/Outer$Nested", "com/a/Svc"));
+        bClasses.put("com/b/WithProvider.class", withProviderMethod("com/b/WithProvider"));
+        writeJar(b, bClasses, null);
+
+        MergeLog log = new NullLog();
+        ModuleInfoCollector collector = new ModuleInfoCollector("com.checked",
+                false, true, true, false, false);
+        for (Path jar : Arrays.asList(a, b)) {
+            try (JarFile jf = new JarFile(jar.toFile())) {
+                for (JarEntry e : Collections.list(jf.entries())) {
+                    if (e.getName().endsWith(".class")) {
+                        collector.noteClass(e.getName(), jar, e, log);
+                    } else if (e.getName().startsWith("META-INF/services/")) {
+                        try (InputStream in = jf.getInputStream(e)) {
+                            collector.noteServiceFile(e.getName(), jar, e, in, log);
+                        }
+                    }
+                }
+            }
+        }
+        ModuleDescriptor desc = ModuleDescriptor.read(ByteBuffer.wrap(moduleInfo(collector)));
+        assertEquals(1, desc.provides().size(), desc.provides()::toString);
+        assertEquals(Arrays.asList("com.b.Good", "com.b.Outer$Nested", "com.b.WithProvider"),
+                desc.provides().iterator().next().providers());
+    }
+
+    private static byte[] moduleInfo(ModuleInfoCollector collector) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (JarOutputStream out = new JarOutputStream(bytes)) {
+            out.putNextEntry(new JarEntry(collector.path()));
+            collector.writeCoalesced(out, new NullLog());
+            out.closeEntry();
+        }
+        try (JarInputStream in = new JarInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            in.getNextJarEntry();
+            return in.readAllBytes();
+        }
+    }
+
+    private static void writeJar(Path jar, Map<String, byte[]> classes, String services) throws Exception {
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar))) {
+            for (Map.Entry<String, byte[]> e : classes.entrySet()) {
+                out.putNextEntry(new JarEntry(e.getKey()));
+                out.write(e.getValue());
+                out.closeEntry();
+            }
+            if (services != null) {
+                out.putNextEntry(new JarEntry(SERVICE_FILE));
+                out.write(services.getBytes(UTF_8));
+                out.closeEntry();
+            }
+        }
+    }
+
+    static byte[] withProviderMethod(String name) {
+        ClassWriter cw = new ClassWriter(0);
+        cw.visit(V11, ACC_PUBLIC, name, null, "java/lang/Object", null);
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC | ACC_STATIC, "provider", "()Lcom/a/Svc;", null, null);
+        mv.visitCode();
+        mv.visitInsn(ACONST_NULL);
+        mv.visitInsn(ARETURN);
+        mv.visitMaxs(1, 0);
+        mv.visitEnd();
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    @Test
+    public void testConcurrentScanningOfManyJars() throws Exception {
+        MergeLog log = new NullLog();
+        ModuleInfoCollector collector = new ModuleInfoCollector("com.many",
+                false, false, false, false, false);
+        int jars = 32;
+        IntStream.range(0, jars * 20).parallel().forEach(i -> {
+            int jar = i % jars;
+            Path path = Paths.get("jar-" + jar + ".jar");
+            String pkg = "com/many/j" + jar + "/p" + (i % 5);
+            collector.notePackage(pkg + "/C" + i + ".class", path,
+                    new JarEntry(pkg + "/C" + i + ".class"), log);
+            String svc = "com.many.j" + jar + ".p0.Impl" + i + "\n";
+            try {
+                collector.noteServiceFile("META-INF/services/com.many.Svc", path,
+                        new JarEntry("META-INF/services/com.many.Svc"),
+                        new ByteArrayInputStream(svc.getBytes(UTF_8)), log);
+            } catch (IOException ex) {
+                throw new AssertionError(ex);
+            }
+        });
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (JarOutputStream out = new JarOutputStream(bytes)) {
+            out.putNextEntry(new JarEntry(collector.path()));
+            collector.writeCoalesced(out, log);
+            out.closeEntry();
+        }
+        byte[] moduleInfo;
+        try (JarInputStream in = new JarInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            in.getNextJarEntry();
+            moduleInfo = in.readAllBytes();
+        }
+        Set<String> packages = new HashSet<>();
+        for (int i = 0; i < jars; i++) {
+            for (int j = 0; j < 5; j++) {
+                packages.add("com.many.j" + i + ".p" + j);
+            }
+        }
+        ModuleDescriptor desc = ModuleDescriptor.read(ByteBuffer.wrap(moduleInfo), () -> packages);
+        assertEquals(packages.size(), desc.exports().size());
+        assertEquals(1, desc.provides().size());
+        assertEquals(jars * 20, desc.provides().iterator().next().providers().size());
+    }
+
+    private static List<Path> cacheFiles(Path dir) throws Exception {
+        try (Stream<Path> str = Files.list(dir)) {
+            return str.collect(Collectors.toList());
+        }
+    }
+
+    private static byte[] synthesize(Path jar) throws Exception {
+        return synthesize(jar, null);
+    }
+
+    private static byte[] synthesize(Path jar, ModuleInfoCache cache) throws Exception {
+        MergeLog log = new NullLog();
+        ModuleInfoCollector collector = new ModuleInfoCollector("com.a.merged",
+                false, true, false, true, true).cache(cache).prescan(true);
+        try (JarFile jf = new JarFile(jar.toFile())) {
+            for (String name : Arrays.asList("com/a/Svc.class", "com/a/impl/SvcImpl.class")) {
+                collector.noteClass(name, jar, jf.getJarEntry(name), log);
+            }
+            JarEntry svc = jf.getJarEntry(SERVICE_FILE);
+            try (InputStream in = jf.getInputStream(svc)) {
+                collector.noteServiceFile(SERVICE_FILE, jar, svc, in, log);
+            }
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (JarOutputStream out = new JarOutputStream(bytes)) {
+            out.putNextEntry(new JarEntry(collector.path()));
+            collector.writeCoalesced(out, log);
+            out.closeEntry();
+        }
+        try (JarInputStream in = new JarInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            JarEntry e = in.getNextJarEntry();
+            assertEquals("module-info.class", e.getName());
+            return in.readAllBytes();
+        }
+    }
+
+    private static void writeJar(Path jar, String provider) throws Exception {
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar))) {
+            out.putNextEntry(new JarEntry("com/a/Svc.class"));
+            out.write(iface("com/a/Svc"));
+            out.closeEntry();
+            out.putNextEntry(new JarEntry("com/a/impl/SvcImpl.class"));
+            out.write(impl("com/a/impl/SvcImpl", "com/a/Svc"));
+            out.closeEntry();
+            out.putNextEntry(new JarEntry(SERVICE_FILE));
+            out.write((provider + "\n").getBytes(UTF_8));
+            out.closeEntry();
+        }
+    }
+
+    static byte[] iface(String name) {
+        ClassWriter cw = new ClassWriter(0);
+        cw.visit(V11, ACC_PUBLIC | ACC_INTERFACE | ACC_ABSTRACT, name, null,
+                "java/lang/Object", null);
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    static byte[] impl(String name, String iface) {
+        return impl(name, iface, "()V");
+    }
+
+    static byte[] impl(String name, String iface, String constructorDescriptor) {
+        ClassWriter cw = new ClassWriter(0);
+        cw.visit(V11, ACC_PUBLIC, name, null, "java/lang/Object", new String[]{iface});
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", constructorDescriptor, null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(1, 1);
+        mv.visitEnd();
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+}
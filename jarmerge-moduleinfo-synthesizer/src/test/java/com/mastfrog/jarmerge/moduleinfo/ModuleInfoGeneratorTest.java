@@ -0,0 +1,172 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.jarmerge.moduleinfo;
+
+import com.mastfrog.jarmerge.MergeLog;
+import java.io.ByteArrayInputStream;
+import java.lang.module.ModuleDescriptor;
+import java.lang.module.ModuleDescriptor.Exports;
+import java.lang.module.ModuleDescriptor.Opens;
+import java.lang.module.ModuleDescriptor.Provides;
+import java.lang.module.ModuleDescriptor.Requires;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.jar.JarEntry;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.emptySet;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.ModuleVisitor;
+import static org.objectweb.asm.Opcodes.ACC_MANDATED;
+import static org.objectweb.asm.Opcodes.ACC_MODULE;
+import static org.objectweb.asm.Opcodes.ACC_TRANSITIVE;
+import static org.objectweb.asm.Opcodes.V11;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class ModuleInfoGeneratorTest {
+
+    private static final Set<String> PACKAGES = new HashSet<>(Arrays.asList(
+            "com.a", "com.a.impl", "com.b"));
+
+    @Test
+    public void testEmittedClassFileMatchesMergedModel() throws Exception {
+        ModuleInfoGenerator gen = new ModuleInfoGenerator(Arrays.asList(nonModularJar(), modularJar()),
+                emptySet(), Collections.singleton("java.xml")).open(false);
+
+        byte[] bytes = gen.moduleInfoClass("merged.mod", true);
+        ModuleDescriptor desc = ModuleDescriptor.read(ByteBuffer.wrap(bytes), () -> PACKAGES);
+
+        assertEquals("merged.mod", desc.name());
+        assertFalse(desc.isOpen());
+
+        Map<String, Requires> requires = new HashMap<>();
+        desc.requires().forEach(r -> requires.put(r.name(), r));
+        assertEquals(new TreeSet<>(Arrays.asList("java.base", "java.logging", "java.xml")),
+                new TreeSet<>(requires.keySet()), "The merged module must not require itself: " + requires);
+        assertTrue(requires.get("java.base").modifiers().contains(Requires.Modifier.MANDATED));
+        assertTrue(requires.get("java.logging").modifiers().contains(Requires.Modifier.TRANSITIVE));
+
+        Set<String> exports = new TreeSet<>();
+        desc.exports().forEach((Exports e) -> exports.add(e.source()));
+        assertEquals(new TreeSet<>(PACKAGES), exports);
+
+        // Not an open module, so every exported package gets a synthetic opens
+        Set<String> opens = new TreeSet<>();
+        desc.opens().forEach((Opens o) -> opens.add(o.source()));
+        assertEquals(new TreeSet<>(PACKAGES), opens);
+
+        assertEquals(1, desc.provides().size(), desc.provides()::toString);
+        Provides prov = desc.provides().iterator().next();
+        assertEquals("com.a.Svc", prov.service());
+        assertEquals(Arrays.asList("com.a.impl.SvcImpl$Nested", "com.b.BImpl"), prov.providers(),
+                "Nested class providers must keep their binary names");
+
+        assertEquals(new TreeSet<>(Arrays.asList("com.a.Svc", "com.b.Other")), desc.uses());
+    }
+
+    @Test
+    public void testPackagesAndMainClassAttributes() throws Exception {
+        ModuleInfoGenerator gen = new ModuleInfoGenerator(Arrays.asList(nonModularJar(), modularJar()),
+                emptySet(), emptySet()).open(false).mainClass("com.a.Main");
+        // No package finder - the descriptor must carry its own package list
+        ModuleDescriptor desc = ModuleDescriptor.read(ByteBuffer.wrap(
+                gen.moduleInfoClass("merged.mod", false)));
+        assertEquals(new TreeSet<>(PACKAGES), new TreeSet<>(desc.packages()));
+        assertEquals("com.a.Main", desc.mainClass().orElse(null));
+    }
+
+    @Test
+    public void testOpenModuleHasNoOpens() throws Exception {
+        ModuleInfoGenerator gen = new ModuleInfoGenerator(Arrays.asList(nonModularJar()),
+                emptySet(), emptySet()).open(true);
+        ModuleDescriptor desc = ModuleDescriptor.read(ByteBuffer.wrap(
+                gen.moduleInfoClass("open.mod", false)), () -> PACKAGES);
+        assertTrue(desc.isOpen());
+        assertTrue(desc.opens().isEmpty());
+        assertTrue(desc.uses().isEmpty(), desc.uses()::toString);
+    }
+
+    private static JarInfo nonModularJar() throws Exception {
+        JarInfo info = new JarInfo(Paths.get("a.jar"));
+        info.note(new JarEntry("com/a/Svc.class"));
+        info.note(new JarEntry("com/a/impl/SvcImpl$Nested.class"));
+        String svc = "# comment\ncom.a.impl.SvcImpl$Nested\n";
+        info.readServiceFile("com.a.Svc", new JarEntry("META-INF/services/com.a.Svc"),
+                new ByteArrayInputStream(svc.getBytes(UTF_8)), new NullLog());
+        return info;
+    }
+
+    private static JarInfo modularJar() throws Exception {
+        ClassWriter cw = new ClassWriter(0);
+        cw.visit(V11, ACC_MODULE, "module-info", null, null, null);
+        ModuleVisitor mv = cw.visitModule("b", 0, "1.0");
+        mv.visitRequire("java.base", ACC_MANDATED, null);
+        mv.visitRequire("java.logging", ACC_TRANSITIVE, null);
+        mv.visitExport("com/b", 0);
+        mv.visitProvide("com/a/Svc", "com/b/BImpl");
+        mv.visitUse("com/b/Other");
+        mv.visitEnd();
+        cw.visitEnd();
+
+        JarInfo info = new JarInfo(Paths.get("b.jar"));
+        info.note(new JarEntry("com/b/BImpl.class"));
+        info.readModuleInfo(new JarEntry("module-info.class"), null,
+                new ByteArrayInputStream(cw.toByteArray()), new NullLog());
+        return info;
+    }
+
+    static final class NullLog implements MergeLog {
+
+        @Override
+        public MergeLog log(String string) {
+            return this;
+        }
+
+        @Override
+        public MergeLog debug(String string) {
+            return this;
+        }
+
+        @Override
+        public MergeLog warn(String string) {
+            return this;
+        }
+
+        @Override
+        public MergeLog error(String string) {
+            return this;
+        }
+    }
+}
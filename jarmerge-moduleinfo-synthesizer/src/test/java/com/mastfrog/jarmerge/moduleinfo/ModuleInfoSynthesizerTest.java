@@ -1,14 +1,34 @@
 package com.mastfrog.jarmerge.moduleinfo;
 
 import com.mastfrog.jarmerge.JarMerge;
+import static com.mastfrog.jarmerge.moduleinfo.ModuleInfoSynthesizer.PROP_MODULE_INFO_CACHE;
+import static com.mastfrog.jarmerge.moduleinfo.ModuleInfoSynthesizer.PROP_MODULE_INFO_CACHE_MAX_BYTES;
 import static com.mastfrog.jarmerge.moduleinfo.ModuleInfoSynthesizer.PROP_MODULE_NAME;
+import static com.mastfrog.jarmerge.moduleinfo.ModuleInfoSynthesizer.PROP_OMIT_JDK_PACKAGES;
 import static com.mastfrog.jarmerge.moduleinfo.ModuleInfoSynthesizer.PROP_OPEN_MODULE;
+import static com.mastfrog.jarmerge.moduleinfo.ModuleInfoCollectorTest.iface;
+import static com.mastfrog.jarmerge.moduleinfo.ModuleInfoCollectorTest.impl;
+import java.io.OutputStream;
+import java.lang.module.ModuleDescriptor;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import static java.util.Collections.singletonMap;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.ModuleVisitor;
+import static org.objectweb.asm.Opcodes.ACC_MANDATED;
+import static org.objectweb.asm.Opcodes.ACC_MODULE;
+import static org.objectweb.asm.Opcodes.V11;
 import static org.junit.jupiter.api.Assertions.*;
 
 /**
@@ -17,6 +37,80 @@ import static org.junit.jupiter.api.Assertions.*;
  */
 public class ModuleInfoSynthesizerTest {
 
+    @Test
+    public void testCacheMaxBytesIsValidated() {
+        assertEquals(1024L, synthesizer(PROP_MODULE_INFO_CACHE_MAX_BYTES, " 1024 ").cacheMaxBytes());
+        IllegalArgumentException ex = assertThrows(IllegalArgumentException.class,
+                () -> synthesizer(PROP_MODULE_INFO_CACHE_MAX_BYTES, "8Mb").cacheMaxBytes());
+        assertTrue(ex.getMessage().contains(PROP_MODULE_INFO_CACHE_MAX_BYTES), ex::getMessage);
+        assertThrows(IllegalArgumentException.class,
+                () -> synthesizer(PROP_MODULE_INFO_CACHE_MAX_BYTES, "0").cacheMaxBytes());
+    }
+
+    @Test
+    public void testJdkPackageSettings() {
+        assertTrue(synthesizer(PROP_OMIT_JDK_PACKAGES, " true").omitJdkPackages());
+        assertFalse(synthesizer(PROP_OMIT_JDK_PACKAGES, "false ").omitJdkPackages());
+        assertEquals(JdkPackageIndex.defaultCacheDir(),
+                synthesizer(PROP_OMIT_JDK_PACKAGES, "true").jdkPackageCacheDir());
+        assertEquals(Paths.get("/tmp/mi-cache"),
+                synthesizer(PROP_MODULE_INFO_CACHE, "/tmp/mi-cache").jdkPackageCacheDir());
+    }
+
+    @Test
+    public void testModulePackagesAreRelocated(@TempDir Path dir) throws Exception {
+        Path jar = dir.resolve("in.jar");
+        try ( OutputStream os = Files.newOutputStream(jar);  JarOutputStream out = new JarOutputStream(os)) {
+            out.putNextEntry(new JarEntry("module-info.class"));
+            out.write(moduleInfo("thing", "com/old", "com/old", "com/user"));
+            out.closeEntry();
+            out.putNextEntry(new JarEntry("com/old/Foo.class"));
+            out.write(iface("com/old/Foo"));
+            out.closeEntry();
+            out.putNextEntry(new JarEntry("com/user/Bar.class"));
+            out.write(impl("com/user/Bar", "com/old/Foo"));
+            out.closeEntry();
+        }
+        Path merged = dir.resolve("merged.jar");
+        JarMerge.builder().addJar(jar).noSystemExitOnError()
+                .withExtensionProperty("package:com.old", "org.neu")
+                .withExtensionProperty(PROP_MODULE_NAME, "relocated.thing")
+                .finalJarName(merged.toString())
+                .run();
+        ModuleDescriptor desc;
+        try ( JarFile out = new JarFile(merged.toFile())) {
+            assertNotNull(out.getEntry("org/neu/Foo.class"));
+            desc = ModuleDescriptor.read(ByteBuffer.wrap(
+                    out.getInputStream(out.getEntry("module-info.class")).readAllBytes()));
+        }
+        Set<String> packages = new TreeSet<>(desc.packages());
+        assertTrue(packages.contains("org.neu"), packages::toString);
+        assertFalse(packages.contains("com.old"), packages::toString);
+        assertTrue(packages.contains("com.user"), packages::toString);
+        assertTrue(desc.exports().stream().anyMatch(exp -> "org.neu".equals(exp.source())),
+                desc::toString);
+    }
+
+    private static byte[] moduleInfo(String name, String export, String... packages) {
+        ClassWriter cw = new ClassWriter(0);
+        cw.visit(V11, ACC_MODULE, "module-info", null, null, null);
+        ModuleVisitor mv = cw.visitModule(name, 0, null);
+        mv.visitRequire("java.base", ACC_MANDATED, null);
+        mv.visitExport(export, 0);
+        for (String pkg : packages) {
+            mv.visitPackage(pkg);
+        }
+        mv.visitEnd();
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    static ModuleInfoSynthesizer synthesizer(String prop, String value) {
+        JarMerge merge = JarMerge.builder().withExtensionProperty(prop, value)
+                .finalJarName("x");
+        return (ModuleInfoSynthesizer) new ModuleInfoSynthesizer().configureInstance(merge);
+    }
+
     @Test
     public void testSomeMethod() throws Exception {
         if (true) {
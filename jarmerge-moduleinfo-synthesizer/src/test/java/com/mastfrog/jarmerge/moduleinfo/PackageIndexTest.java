@@ -0,0 +1,112 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.jarmerge.moduleinfo;
+
+import com.mastfrog.jarmerge.MergeLog;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class PackageIndexTest {
+
+    private static final Path A = Paths.get("a.jar");
+    private static final Path B = Paths.get("b.jar");
+
+    @Test
+    public void testSplitPackagesAreReportedOnce() {
+        WarnLog log = new WarnLog();
+        PackageIndex index = new PackageIndex(PackageIndex.Policy.WARN, null);
+        String first = index.note(new String("com.a"), A, log);
+        assertSame(first, index.note(new String("com.a"), A, log), "Package names should be interned");
+        index.note("com.b", B, log);
+        assertTrue(log.warnings.isEmpty(), log.warnings::toString);
+        assertSame(first, index.note(new String("com.a"), B, log));
+        index.note("com.a", B, log);
+        index.note("com.a", Paths.get("c.jar"), log);
+        assertEquals(1, log.warnings.size(), log.warnings::toString);
+        assertEquals("Split package com.a is contributed by a.jar, b.jar", log.warnings.get(0));
+    }
+
+    @Test
+    public void testFailPolicyThrowsDuringScan() {
+        PackageIndex index = new PackageIndex(PackageIndex.Policy.FAIL, null);
+        WarnLog log = new WarnLog();
+        index.note("com.a", A, log);
+        assertThrows(IllegalStateException.class, () -> index.note("com.a", B, log));
+    }
+
+    @Test
+    public void testPolicyParse() {
+        assertEquals(PackageIndex.Policy.WARN, PackageIndex.Policy.parse(null));
+        assertEquals(PackageIndex.Policy.FAIL, PackageIndex.Policy.parse(" fail "));
+        IllegalArgumentException ex = assertThrows(IllegalArgumentException.class,
+                () -> PackageIndex.Policy.parse("warning"));
+        assertTrue(ex.getMessage().contains(ModuleInfoSynthesizer.PROP_SPLIT_PACKAGES), ex::getMessage);
+        assertTrue(ex.getMessage().contains("'warning'"), ex::getMessage);
+        assertTrue(ex.getMessage().contains("IGNORE, WARN, FAIL"), ex::getMessage);
+    }
+
+    @Test
+    public void testJdkOverlap() {
+        WarnLog log = new WarnLog();
+        PackageIndex index = new PackageIndex(PackageIndex.Policy.WARN, JdkPackageIndex.defaultCacheDir());
+        index.note("org.w3c.dom", A, log);
+        index.note("com.a", A, log);
+        assertEquals(1, log.warnings.size(), log.warnings::toString);
+        assertTrue(log.warnings.get(0).contains("java.xml"), log.warnings::toString);
+    }
+
+    static final class WarnLog implements MergeLog {
+
+        final List<String> warnings = new ArrayList<>();
+
+        @Override
+        public MergeLog log(String string) {
+            return this;
+        }
+
+        @Override
+        public MergeLog debug(String string) {
+            return this;
+        }
+
+        @Override
+        public synchronized MergeLog warn(String string) {
+            warnings.add(string);
+            return this;
+        }
+
+        @Override
+        public MergeLog error(String string) {
+            return this;
+        }
+    }
+}
@@ -24,9 +24,6 @@
 package com.mastfrog.jarmerge.relocation;
 
 import com.mastfrog.jarmerge.MergeLog;
-import com.mastfrog.jarmerge.spi.Coalescer;
-import java.io.ByteArrayInputStream;
-import java.io.InputStream;
 import java.nio.file.Path;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
@@ -38,12 +35,13 @@ import java.util.jar.JarOutputStream;
  *
  * @author Tim Boudreau
  */
-final class AnyCoalescer implements Coalescer {
+final class AnyCoalescer implements TransformingCoalescer {
 
     final String path;
     final JarEntry entry;
     final Path jar;
-    byte[] bytes;
+    String entryName;
+    private boolean duplicate;
     private final RelocationCoalescers owner;
 
     AnyCoalescer(String path, JarEntry entry, Path jar, final RelocationCoalescers outer) {
@@ -65,19 +63,26 @@ final class AnyCoalescer implements Coalescer {
 
     @Override
     public void writeCoalesced(JarOutputStream out, MergeLog log) throws Exception {
-        if (bytes == null) {
-            throw new IllegalStateException("Bytes never read for " + entry);
+        if (entryName == null) {
+            throw new IllegalStateException("Never added: " + entry);
+        }
+        if (!duplicate) {
+            owner.writeCoalesced(out, log, this, jar, path);
         }
-        owner.writeCoalesced(out, log, this, () -> new ByteArrayInputStream(bytes));
+    }
+
+    @Override
+    public byte[] transformedBytes() throws Exception {
+        return owner.transform(this);
     }
 
     @Override
     public void add(Path jar, JarEntry entry, JarFile in, MergeLog log) throws Exception {
-        if (bytes != null) {
-            throw new IllegalStateException("Bytes already set for " + path + " in " + jar);
-        }
-        try (final InputStream input = in.getInputStream(entry)) {
-            bytes = input.readAllBytes();
+        if (entryName != null) {
+            throw new IllegalStateException("Already added " + path + " in " + jar);
         }
+        // Just note where to find it - the bytes are read again when written
+        entryName = entry.getName();
+        duplicate = !owner.register(this, path, jar, entry, in, log);
     }
 }
@@ -28,9 +28,10 @@ import com.mastfrog.jarmerge.MergeLog;
 import com.mastfrog.jarmerge.spi.ClassNameRewriter;
 import com.mastfrog.jarmerge.spi.Coalescer;
 import com.mastfrog.jarmerge.spi.JarFilter;
-import com.mastfrog.util.path.UnixPath;
 import com.mastfrog.util.service.ServiceProvider;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
 import java.util.jar.JarEntry;
 
 /**
@@ -40,6 +41,8 @@ import java.util.jar.JarEntry;
  * <code>&ltpackage:com.needs.rename&gt;org.renamed.to&lt;/package:com.needs.rename&gt;</code>
  * or
  * <code>&lt;defaultPackageDest&gt;was.default.package&lt;/defaultPackageDest&gt;</code>.
+ * A package name suffixed with <code>.**</code> relocates that package and all
+ * of its subpackages.
  *
  * @author Tim Boudreau
  */
@@ -47,6 +50,29 @@ import java.util.jar.JarEntry;
 public final class ClassRelocatingJarFilter implements JarFilter<Coalescer> {
 
     public static final String DEFAULT_PACKAGE_COALESCENCE = "defaultPackageDest";
+    /**
+     * The maximum number of remapped descriptors and signatures to remember
+     * per generation of the signature cache (the cache holds at most twice
+     * this many); default 8192.  Must be greater than zero; sizes below 16
+     * are raised to 16.
+     */
+    public static final String SIGNATURE_CACHE_SIZE = "relocationSignatureCacheSize";
+    /**
+     * If true, omit line numbers, local variable tables and source file names
+     * from every class file this filter handles, for smaller JARs which load
+     * faster (at the price of less informative stack traces).
+     */
+    public static final String STRIP_DEBUG = "stripDebug";
+    /**
+     * A directory in which to cache relocated class files across builds, so
+     * classes from unchanged dependencies are not rewritten again.
+     */
+    public static final String RELOCATION_CACHE = "relocationCache";
+    /**
+     * Maximum total size in bytes of the relocation cache directory; least
+     * recently used entries are deleted when it is exceeded.  Default 256Mb.
+     */
+    public static final String RELOCATION_CACHE_MAX_BYTES = "relocationCacheMaxBytes";
     private static final String REPACKAGE_PREFIX = "package:";
     private final JarMerge settings;
     private final ClassNameRewriterImpl rewriterImpl = new ClassNameRewriterImpl();
@@ -54,56 +80,89 @@ public final class ClassRelocatingJarFilter implements JarFilter<Coalescer> {
     private boolean zeroDates;
     private RelocationCoalescers coas;
     private final boolean isUnused;
+    private final RelocationRules rules;
 
     public ClassRelocatingJarFilter() {
         settings = null;
         isUnused = false;
+        rules = RelocationRules.create(Collections.emptyMap(), REPACKAGE_PREFIX,
+                DEFAULT_PACKAGE_COALESCENCE);
     }
 
     public ClassRelocatingJarFilter(JarMerge settings) {
         this.settings = settings;
-        boolean unused = !settings.extensionProperties.containsKey(DEFAULT_PACKAGE_COALESCENCE);
-        if (unused) {
-            for (String k : settings.extensionProperties.keySet()) {
-                if (k.startsWith(REPACKAGE_PREFIX)) {
-                    unused = false;
-                    break;
-                }
-            }
+        rules = RelocationRules.create(settings.extensionProperties,
+                REPACKAGE_PREFIX, DEFAULT_PACKAGE_COALESCENCE);
+        isUnused = rules.isEmpty();
+    }
+
+    RelocationRules rules() {
+        return rules;
+    }
+
+    boolean isStripDebug() {
+        return settings != null && "true".equals(settings.extensionProperties.get(STRIP_DEBUG));
+    }
+
+    RelocationCache relocationCache() {
+        String dir = settings == null ? null : settings.extensionProperties.get(RELOCATION_CACHE);
+        if (dir == null || dir.isBlank()) {
+            return null;
         }
-        isUnused = unused;
+        return new RelocationCache(Paths.get(dir.trim()), relocationCacheMaxBytes());
+    }
+
+    long relocationCacheMaxBytes() {
+        String max = settings == null ? null : settings.extensionProperties.get(RELOCATION_CACHE_MAX_BYTES);
+        if (max == null || max.isBlank()) {
+            return RelocationCache.DEFAULT_MAX_BYTES;
+        }
+        long result;
+        try {
+            result = Long.parseLong(max.trim());
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Bad value for " + RELOCATION_CACHE_MAX_BYTES
+                    + ": '" + max + "'", ex);
+        }
+        if (result <= 0) {
+            throw new IllegalArgumentException(RELOCATION_CACHE_MAX_BYTES
+                    + " must be greater than zero: '" + max + "'");
+        }
+        return result;
+    }
+
+    int signatureCacheSize() {
+        String val = settings == null ? null : settings.extensionProperties.get(SIGNATURE_CACHE_SIZE);
+        if (val == null || val.isBlank()) {
+            return RemapCache.DEFAULT_MAX_SIZE;
+        }
+        int result;
+        try {
+            result = Integer.parseInt(val.trim());
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Bad value for " + SIGNATURE_CACHE_SIZE
+                    + ": '" + val + "'", ex);
+        }
+        if (result <= 0) {
+            throw new IllegalArgumentException(SIGNATURE_CACHE_SIZE
+                    + " must be greater than zero: '" + val + "'");
+        }
+        return result;
     }
 
     String replacementPackage(String pkg) {
         if (pkg == null) {
             return null;
         }
-        String setting = REPACKAGE_PREFIX + pkg;
-        String replacement = settings == null ? null : settings.extensionProperties.get(setting);
-        if (replacement == null && pkg.indexOf('/') > 0) {
-            setting = REPACKAGE_PREFIX + pkg.replace('/', '.');
-            replacement = settings == null ? null : settings.extensionProperties.get(setting);
-        }
-        return replacement == null ? pkg : replacement;
+        return rules.replacementPackage(pkg);
     }
 
     public String transformPackage(String path) {
         if ("module-info.class".equals(path)) {
             return "";
         }
-        UnixPath up = UnixPath.get(path);
-        if ("class".equals(up.extension())) {
-            if (up.getNameCount() == 1) {
-                String dp = settings == null ? null : settings.extensionProperties.get(DEFAULT_PACKAGE_COALESCENCE);
-                if (dp == null) {
-                    return null;
-                }
-                return dp;
-            } else {
-                String setting = REPACKAGE_PREFIX + up.getParent().toString('.');
-                String pkg = settings == null ? null : settings.extensionProperties.get(setting);
-                return pkg;
-            }
+        if (path.endsWith(".class")) {
+            return rules.relocate(path, Math.max(0, path.lastIndexOf('/')), '.');
         }
         return null;
     }
@@ -208,27 +267,29 @@ public final class ClassRelocatingJarFilter implements JarFilter<Coalescer> {
             if (coas != null) {
                 String arg = t;
                 String result = coas.remap(arg);
-                if (result.equals(arg)) {
-                    arg = arg.replace('.', '/');
-                    result = coas.remap(arg);
-                    if (!result.equals(arg)) {
-                        return result.replace('/', '.');
-                    } else {
-                        return t;
-                    }
-                } else {
+                if (!result.equals(arg)) {
                     return result;
                 }
+                arg = arg.replace('.', '/');
+                result = coas.remap(arg);
+                if (!result.equals(arg)) {
+                    return result.replace('/', '.');
+                }
+            }
+            // Not the name of a class we relocated - it may be a package,
+            // such as a module's packages, exports and opens, which the
+            // class name mapping knows nothing about, or a class in a
+            // relocated package that is not in any of the JARs
+            String rpkg = replacementPackage(t);
+            if (!rpkg.equals(t)) {
+                return rpkg;
             }
-            int dotIx = t.lastIndexOf('.');
-            if (dotIx > 0) {
-                String rpkg = replacementPackage(t);
-                if (rpkg.equals(t)) {
-                    String stripped = t.substring(0, dotIx);
-                    rpkg = replacementPackage(stripped);
-                    if (!rpkg.equals(stripped)) {
-                        return rpkg + '.' + t.substring(dotIx);
-                    }
+            int sepIx = Math.max(t.lastIndexOf('.'), t.lastIndexOf('/'));
+            if (sepIx > 0) {
+                String stripped = t.substring(0, sepIx);
+                rpkg = replacementPackage(stripped);
+                if (!rpkg.equals(stripped)) {
+                    return rpkg + t.substring(sepIx);
                 }
             }
             return t;
@@ -0,0 +1,228 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.jarmerge.relocation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Reads just the constant pool of a class file to decide whether it can
+ * possibly refer to any relocated class - every class name, descriptor,
+ * signature and string constant a class file contains is a CONSTANT_Utf8
+ * entry, so if none of those contains the name of a relocated package (in
+ * internal or dotted form) or of a relocated default-package class, rewriting
+ * the class with ASM cannot change it, and its original bytes can be copied
+ * verbatim.
+ * <p>
+ * Errs on the side of reporting a reference - anything it cannot parse is
+ * assumed to need rewriting.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+final class ConstantPoolScanner {
+
+    private static final int MAGIC = 0xCAFEBABE;
+    private final byte[][] substrings;
+    private final byte[][] exact;
+    private final int minLength;
+
+    private ConstantPoolScanner(Collection<String> substrings, Collection<String> exact) {
+        this.substrings = encode(substrings);
+        this.exact = encode(exact);
+        int min = Integer.MAX_VALUE;
+        for (byte[] b : this.substrings) {
+            min = Math.min(min, b.length);
+        }
+        for (byte[] b : this.exact) {
+            min = Math.min(min, b.length);
+        }
+        this.minLength = min;
+    }
+
+    /**
+     * Create a scanner for a set of relocated classes.
+     *
+     * @param relocatedClasses The internal names, without <code>.class</code>,
+     * of every class being relocated
+     * @return A scanner
+     */
+    static ConstantPoolScanner forRelocatedClasses(Collection<String> relocatedClasses) {
+        Set<String> substrings = new LinkedHashSet<>();
+        Set<String> exact = new LinkedHashSet<>();
+        for (String cl : relocatedClasses) {
+            int ix = cl.lastIndexOf('/');
+            if (ix > 0) {
+                // Relocation is by package, so match the package prefix
+                // rather than each class in it
+                String pkg = cl.substring(0, ix + 1);
+                substrings.add(pkg);
+                substrings.add(pkg.replace('/', '.'));
+            } else {
+                // Default package names are too short to match as
+                // substrings without matching nearly everything
+                exact.add(cl);
+                substrings.add('L' + cl + ';');
+                substrings.add('L' + cl + '<');
+            }
+        }
+        return new ConstantPoolScanner(substrings, exact);
+    }
+
+    boolean isEmpty() {
+        return substrings.length == 0 && exact.length == 0;
+    }
+
+    /**
+     * Determine if the passed class file bytes may reference any relocated
+     * class.
+     *
+     * @param classFile A class file
+     * @return true if the class file may need rewriting
+     */
+    boolean mayReferenceRelocated(byte[] classFile) {
+        if (isEmpty()) {
+            return false;
+        }
+        try {
+            return scan(classFile);
+        } catch (ArrayIndexOutOfBoundsException ex) {
+            // Truncated or malformed - let ASM deal with it
+            return true;
+        }
+    }
+
+    private boolean scan(byte[] b) {
+        if (b.length < 10 || readInt(b, 0) != MAGIC) {
+            return true;
+        }
+        int count = readShort(b, 8);
+        int pos = 10;
+        for (int i = 1; i < count; i++) {
+            int tag = b[pos++] & 0xFF;
+            switch (tag) {
+                case 1: // Utf8
+                    int len = readShort(b, pos);
+                    pos += 2;
+                    if (len >= minLength && matches(b, pos, len)) {
+                        return true;
+                    }
+                    pos += len;
+                    break;
+                case 7: // Class
+                case 8: // String
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    pos += 2;
+                    break;
+                case 15: // MethodHandle
+                    pos += 3;
+                    break;
+                case 3: // Integer
+                case 4: // Float
+                case 9: // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                case 12: // NameAndType
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    pos += 4;
+                    break;
+                case 5: // Long
+                case 6: // Double
+                    pos += 8;
+                    // Eight byte constants take up two slots
+                    i++;
+                    break;
+                default:
+                    // A constant type newer than this code
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean matches(byte[] b, int start, int len) {
+        for (byte[] ex : exact) {
+            if (ex.length == len && regionMatches(b, start, ex)) {
+                return true;
+            }
+        }
+        for (byte[] sub : substrings) {
+            int last = start + len - sub.length;
+            for (int i = start; i <= last; i++) {
+                if (b[i] == sub[0] && regionMatches(b, i, sub)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean regionMatches(byte[] b, int start, byte[] sub) {
+        for (int i = 0; i < sub.length; i++) {
+            if (b[start + i] != sub[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int readShort(byte[] b, int pos) {
+        return ((b[pos] & 0xFF) << 8) | (b[pos + 1] & 0xFF);
+    }
+
+    private static int readInt(byte[] b, int pos) {
+        return (readShort(b, pos) << 16) | readShort(b, pos + 2);
+    }
+
+    private static byte[][] encode(Collection<String> strings) {
+        // Class files use modified UTF-8, which is what DataOutput.writeUTF()
+        // emits, so encode the same way to compare raw bytes
+        List<byte[]> result = new ArrayList<>(strings.size());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try ( DataOutputStream out = new DataOutputStream(bytes)) {
+            for (String s : strings) {
+                bytes.reset();
+                out.writeUTF(s);
+                out.flush();
+                byte[] encoded = bytes.toByteArray();
+                byte[] withoutLength = new byte[encoded.length - 2];
+                System.arraycopy(encoded, 2, withoutLength, 0, withoutLength.length);
+                result.add(withoutLength);
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return result.toArray(new byte[result.size()][]);
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.jarmerge.relocation;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Re-reads class file bytes from their original JAR on demand, so we do not
+ * need to hold the bytes of every class in every JAR being merged in memory
+ * between the time they are scanned and the time they are written. Each JAR is
+ * opened once, on first read, and closed when every entry that was retained
+ * from it has been released.
+ *
+ * @author Tim Boudreau
+ */
+final class JarReader {
+
+    private final Map<Path, Handle> handles = new ConcurrentHashMap<>();
+
+    /**
+     * Note that an entry will be read from a JAR later.
+     *
+     * @param jar A jar
+     */
+    void retain(Path jar) {
+        handles.compute(jar, (p, old) -> {
+            Handle result = old == null ? new Handle(p) : old;
+            result.refs.incrementAndGet();
+            return result;
+        });
+    }
+
+    /**
+     * Note that an entry which was retained is no longer needed, closing the
+     * JAR if nothing else needs it.
+     *
+     * @param jar A jar
+     */
+    void release(Path jar) throws IOException {
+        Handle[] closing = new Handle[1];
+        handles.computeIfPresent(jar, (p, handle) -> {
+            if (handle.refs.decrementAndGet() <= 0) {
+                closing[0] = handle;
+                return null;
+            }
+            return handle;
+        });
+        if (closing[0] != null) {
+            closing[0].close();
+        }
+    }
+
+    /**
+     * Close every JAR which is still open, whether or not everything retained
+     * from it was released, once the merge is finished or has failed.
+     * Anything still reading from one will fail.
+     */
+    void closeAll() throws IOException {
+        IOException failure = null;
+        for (Path jar : handles.keySet()) {
+            Handle handle = handles.remove(jar);
+            if (handle != null) {
+                try {
+                    handle.close();
+                } catch (IOException ex) {
+                    if (failure == null) {
+                        failure = ex;
+                    } else {
+                        failure.addSuppressed(ex);
+                    }
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    byte[] read(Path jar, String entryName) throws IOException {
+        Handle handle = handles.get(jar);
+        if (handle == null) {
+            throw new IllegalStateException("Not retained or already released: " + jar);
+        }
+        return handle.read(entryName);
+    }
+
+    private static final class Handle {
+
+        private final Path jar;
+        private final AtomicInteger refs = new AtomicInteger();
+        private ZipFile zip;
+        private boolean closed;
+
+        Handle(Path jar) {
+            this.jar = jar;
+        }
+
+        private synchronized ZipFile zip() throws IOException {
+            if (closed) {
+                // Do not reopen it behind the back of whoever closed it
+                throw new IOException("Already closed: " + jar);
+            }
+            if (zip == null) {
+                zip = new ZipFile(jar.toFile());
+            }
+            return zip;
+        }
+
+        byte[] read(String entryName) throws IOException {
+            ZipFile file = zip();
+            ZipEntry entry = file.getEntry(entryName);
+            if (entry == null) {
+                throw new IOException("No entry " + entryName + " in " + jar);
+            }
+            try ( InputStream in = file.getInputStream(entry)) {
+                return in.readAllBytes();
+            }
+        }
+
+        synchronized void close() throws IOException {
+            closed = true;
+            if (zip != null) {
+                try {
+                    zip.close();
+                } finally {
+                    zip = null;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.jarmerge.relocation;
+
+import com.mastfrog.jarmerge.MergeLog;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A persistent, content-addressed cache of relocated class files, so that
+ * classes from dependencies which have not changed since the last build are
+ * not rewritten again. Keys are a digest of the original class bytes combined
+ * with a digest of everything else that determines the output - the compiled
+ * relocation rules, the set of classes being relocated, the ASM version and
+ * whether debug info is stripped; values are the new entry name and the
+ * rewritten bytes.
+ * <p>
+ * Files are spread across subdirectories named for the first two characters
+ * of their key, and written to a temp file and atomically moved into place, so
+ * builds sharing a cache never see a partially written entry. The last-modified
+ * time of a file is updated on every hit, and once a merge has written all of
+ * its classes, if the total size of the cache exceeds its bound, the least
+ * recently used entries are deleted.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+final class RelocationCache {
+
+    static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+    private static final String SUFFIX = ".reloc";
+    private final Path dir;
+    private final long maxBytes;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong stores = new AtomicLong();
+
+    RelocationCache(Path dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "RelocationCache(" + dir + ", " + maxBytes + ", "
+                + hits.get() + " hits, " + stores.get() + " stored)";
+    }
+
+    private Path file(String key) {
+        return dir.resolve(key.substring(0, 2)).resolve(key + SUFFIX);
+    }
+
+    /**
+     * Get the cached bytes for a key, if the cached entry has the expected
+     * target name.
+     *
+     * @param key The key
+     * @param target The expected entry name
+     * @param log A log
+     * @return The bytes or null
+     */
+    byte[] get(String key, String target, MergeLog log) {
+        Path file = file(key);
+        try {
+            byte[] data = Files.readAllBytes(file);
+            try ( DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+                String name = in.readUTF();
+                if (!target.equals(name)) {
+                    return null;
+                }
+                byte[] result = in.readAllBytes();
+                // Our LRU order is the file time
+                Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+                hits.incrementAndGet();
+                return result;
+            }
+        } catch (NoSuchFileException ex) {
+            return null;
+        } catch (IOException ex) {
+            log.warn("Could not read cached class " + file + ": " + ex);
+            return null;
+        }
+    }
+
+    void put(String key, String target, byte[] bytes, MergeLog log) {
+        Path file = file(key);
+        try {
+            ByteArrayOutputStream buf = new ByteArrayOutputStream(bytes.length + target.length() + 2);
+            try ( DataOutputStream out = new DataOutputStream(buf)) {
+                out.writeUTF(target);
+                out.write(bytes);
+            }
+            Path sub = file.getParent();
+            Files.createDirectories(sub);
+            // Write to a temp file and move it into place, so a concurrent
+            // build sharing the cache never sees a partially written file
+            Path tmp = Files.createTempFile(sub, key, ".tmp");
+            try {
+                Files.write(tmp, buf.toByteArray());
+                try {
+                    Files.move(tmp, file, ATOMIC_MOVE, REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException ex) {
+                    Files.move(tmp, file, REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+            stores.incrementAndGet();
+        } catch (IOException ex) {
+            log.warn("Could not cache relocated class in " + file + ": " + ex);
+        }
+    }
+
+    /**
+     * Delete the least recently used entries until the cache is within its
+     * size bound.
+     *
+     * @param log A log
+     */
+    void evict(MergeLog log) {
+        try {
+            if (!Files.isDirectory(dir)) {
+                return;
+            }
+            List<CacheFile> files = new ArrayList<>();
+            long total = 0;
+            try ( DirectoryStream<Path> subs = Files.newDirectoryStream(dir, Files::isDirectory)) {
+                for (Path sub : subs) {
+                    try ( DirectoryStream<Path> str = Files.newDirectoryStream(sub, "*" + SUFFIX)) {
+                        for (Path p : str) {
+                            try {
+                                CacheFile cf = new CacheFile(p, Files.size(p),
+                                        Files.getLastModifiedTime(p).toMillis());
+                                total += cf.size;
+                                files.add(cf);
+                            } catch (NoSuchFileException ex) {
+                                // evicted by another process
+                            }
+                        }
+                    }
+                }
+            }
+            if (total <= maxBytes) {
+                return;
+            }
+            files.sort(null);
+            int count = 0;
+            for (CacheFile cf : files) {
+                if (total <= maxBytes) {
+                    break;
+                }
+                Files.deleteIfExists(cf.path);
+                total -= cf.size;
+                count++;
+            }
+            log.debug("Evicted " + count + " cached relocated classes from " + dir);
+        } catch (IOException ex) {
+            log.warn("Could not prune relocation cache " + dir + ": " + ex);
+        }
+    }
+
+    private static final class CacheFile implements Comparable<CacheFile> {
+
+        final Path path;
+        final long size;
+        final long lastModified;
+
+        CacheFile(Path path, long size, long lastModified) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        @Override
+        public int compareTo(CacheFile o) {
+            return Long.compare(lastModified, o.lastModified);
+        }
+    }
+}
@@ -24,9 +24,6 @@
 package com.mastfrog.jarmerge.relocation;
 
 import com.mastfrog.jarmerge.MergeLog;
-import com.mastfrog.jarmerge.spi.Coalescer;
-import java.io.ByteArrayInputStream;
-import java.io.InputStream;
 import java.nio.file.Path;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
@@ -36,11 +33,12 @@ import java.util.jar.JarOutputStream;
  *
  * @author Tim Boudreau
  */
-final class RelocationCoalescer implements Coalescer {
+final class RelocationCoalescer implements TransformingCoalescer {
 
     private final RelocationEntry entry;
     private final RelocationCoalescers owner;
-    private byte[] bytes;
+    private String entryName;
+    private boolean duplicate;
 
     RelocationCoalescer(RelocationEntry entry, RelocationCoalescers owner) {
         this.entry = entry;
@@ -61,17 +59,22 @@ final class RelocationCoalescer implements Coalescer {
 
     @Override
     public void writeCoalesced(JarOutputStream out, MergeLog log) throws Exception {
-        if (bytes == null) {
-            throw new IllegalStateException("Bytes never read for " + entry);
+        if (entryName == null) {
+            throw new IllegalStateException("Never added: " + entry);
+        }
+        if (!duplicate) {
+            owner.writeCoalesced(out, log, this, entry.in(), entry.newJarEntryName());
         }
-        owner.writeCoalesced(out, log, entry,
-                () -> new ByteArrayInputStream(bytes));
+    }
+
+    @Override
+    public byte[] transformedBytes() throws Exception {
+        return owner.transform(entry, entryName);
     }
 
     @Override
     public void add(Path jar, JarEntry entry, JarFile in, MergeLog log) throws Exception {
-        try ( InputStream input = in.getInputStream(entry)) {
-            bytes = input.readAllBytes();
-        }
+        entryName = entry.getName();
+        duplicate = !owner.register(this, path(), jar, entry, in, log);
     }
 }
@@ -23,27 +23,27 @@
  */
 package com.mastfrog.jarmerge.relocation;
 
-import static com.mastfrog.asmgraph.Parsing.classSignature;
-import static com.mastfrog.asmgraph.Parsing.fieldSignature;
-import static com.mastfrog.asmgraph.Parsing.methodSignature;
-import com.mastfrog.asmgraph.asm.model.ClassSignature;
-import com.mastfrog.asmgraph.asm.model.MethodSignature;
-import com.mastfrog.asmgraph.asm.model.TypeName;
-import com.mastfrog.function.throwing.io.IOSupplier;
 import com.mastfrog.jarmerge.MergeLog;
-import static com.mastfrog.jarmerge.relocation.TypeNameUtils.looksLikeFQN;
+import java.io.IOException;
 import java.io.InputStream;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import java.nio.file.Path;
 import java.nio.file.attribute.FileTime;
-import java.util.HashSet;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 import java.util.jar.JarOutputStream;
 import org.objectweb.asm.ClassReader;
-import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.commons.ClassRemapper;
 import org.objectweb.asm.commons.Remapper;
 
@@ -56,177 +56,261 @@ import org.objectweb.asm.commons.Remapper;
 final class RelocationCoalescers {
 
     private static final FileTime EPOCH = FileTime.fromMillis(0);
+    private static final String CACHE_VERSION = "1";
     private final Map<String, Set<RelocationEntry>> entries = new ConcurrentHashMap<>();
     private final Set<RelocationEntry> all = ConcurrentHashMap.newKeySet();
     private final Set<AnyCoalescer> anys = ConcurrentHashMap.newKeySet();
     private final ClassRelocatingJarFilter owner;
-    private final Set<String> noRemapCache = new HashSet<>();
-
-    Set<String> writtenEntries = new HashSet<>();
+    private final RelocationRules rules;
+    private final Set<TransformingCoalescer> coalescers = ConcurrentHashMap.newKeySet();
+    private final ThreadLocal<SignatureRemapper> remappers
+            = ThreadLocal.withInitial(() -> new SignatureRemapper(this::relocatedName));
+    private final RemapCache signatureCache;
+    private final AtomicInteger writeCount = new AtomicInteger();
+    private final boolean stripDebug;
+    private final int readerFlags;
+    private volatile ConstantPoolScanner scanner;
+    private final RelocationCache cache;
+    private volatile byte[] cacheContext;
+    private volatile MergeLog log;
+    private final JarReader reader = new JarReader();
+    private TransformPipeline pipeline;
+
+    private final Map<String, Canonical> canonicals = new ConcurrentHashMap<>();
 
     public RelocationCoalescers(ClassRelocatingJarFilter owner) {
         this.owner = owner;
+        this.rules = owner.rules();
+        this.signatureCache = new RemapCache(owner.signatureCacheSize());
+        this.stripDebug = owner.isStripDebug();
+        this.readerFlags = stripDebug ? ClassReader.SKIP_DEBUG : 0;
+        this.cache = owner.relocationCache();
     }
 
-    void writeCoalesced(JarOutputStream out, MergeLog log, RelocationEntry entry,
-            IOSupplier<InputStream> originalBytes) throws Exception {
-        String ne = entry.newJarEntryName();
-        if (writtenEntries.add(ne)) {
-            JarEntry je = newJarEntry(entry.newJarEntryName());
-            out.putNextEntry(je);
-            try {
-                out.write(applyTransforms(entry.in(), entry.path(), originalBytes));
-            } finally {
-                out.closeEntry();
+    /**
+     * Register a class file which will be written to the passed target path,
+     * unless another with the same target path was registered first, in which
+     * case, if the two are identical it is silently deduplicated, and if not,
+     * the conflict is logged.  Identity is checked by size and CRC from the
+     * JAR's central directory, and only if those match, by SHA-256 digest.
+     *
+     * @return true if this is the copy which should be transformed and written
+     */
+    boolean register(TransformingCoalescer coa, String target, Path jar,
+            JarEntry entry, JarFile in, MergeLog log) throws IOException {
+        Canonical nue = new Canonical(jar, entry);
+        Canonical existing = canonicals.putIfAbsent(target, nue);
+        if (existing == null) {
+            reader.retain(jar);
+            coalescers.add(coa);
+            return true;
+        }
+        if (existing.sameSizeAndCrc(entry)) {
+            byte[] digest;
+            try ( InputStream input = in.getInputStream(entry)) {
+                digest = sha256().digest(input.readAllBytes());
+            }
+            if (Arrays.equals(digest, existing.digest())) {
+                log.debug("Identical copies of " + target + " in " + existing.jar.getFileName()
+                        + " and " + jar.getFileName() + " - using the first");
+                return false;
             }
         }
+        log.warn("Conflicting versions of " + target + ": using the one from "
+                + existing + ", omitting " + entry.getName() + " in " + jar.getFileName());
+        return false;
     }
 
-    void writeCoalesced(JarOutputStream out, MergeLog log, AnyCoalescer entry,
-            IOSupplier<InputStream> originalBytes) throws Exception {
-        String ne = entry.path();
-        if (writtenEntries.add(ne)) {
-            JarEntry je = newJarEntry(entry.path());
-            out.putNextEntry(je);
+    void writeCoalesced(JarOutputStream out, MergeLog log, TransformingCoalescer coa,
+            Path jar, String target) throws Exception {
+        boolean written = false;
+        try {
+            this.log = log;
+            byte[] bytes = pipeline().take(coa);
+            out.putNextEntry(newJarEntry(target));
             try {
-                out.write(applyTransforms(entry.jar, entry.path, originalBytes));
-            } catch (IllegalArgumentException ex) {
-                ex.printStackTrace();
-                out.write(originalBytes.get().readAllBytes());
+                out.write(bytes);
             } finally {
                 out.closeEntry();
             }
+            written = true;
+        } finally {
+            boolean last = writeCount.incrementAndGet() == coalescers.size();
+            try {
+                if (last || !written) {
+                    // Either this was the last class, or the exception will
+                    // abort the merge, and the remaining coalescers will never
+                    // be written to release what they retained
+                    reader.closeAll();
+                } else {
+                    reader.release(jar);
+                }
+            } finally {
+                if (last) {
+                    log.debug(signatureCache.toString());
+                    if (cache != null) {
+                        cache.evict(log);
+                        log.debug(cache.toString());
+                    }
+                }
+            }
         }
     }
 
-    private byte[] applyTransforms(Path jar, String path, IOSupplier<InputStream> on) throws Exception {
-        try ( InputStream in = on.get()) {
-            ClassReader cr = new ClassReader(in);
-            ClassWriter cw = new ClassWriter(0);
-            ClassRemapperImpl glarg = new ClassRemapperImpl(jar, path, cw);
-            cr.accept(glarg, ClassReader.EXPAND_FRAMES);
-            return cw.toByteArray();
-        }
+    byte[] transform(RelocationEntry entry, String entryName) throws Exception {
+        byte[] bytes = reader.read(entry.in(), entryName);
+        return cachedTransform(entry.in(), entry.path(), entry.newJarEntryName(), bytes);
     }
 
-    private static boolean isLSemi(String what) {
-        return what.length() > 2 && what.charAt(0) == 'L' && what.charAt(what.length() - 1) == ';';
+    byte[] transform(AnyCoalescer entry) throws Exception {
+        byte[] bytes = reader.read(entry.jar, entry.entryName);
+        if (!stripDebug && !scanner().mayReferenceRelocated(bytes)) {
+            // Nothing to rename - skip parsing and regenerating it
+            return bytes;
+        }
+        try {
+            return cachedTransform(entry.jar, entry.path, entry.path, bytes);
+        } catch (IllegalArgumentException ex) {
+            // ASM could not parse it, so there is nothing we can rename;
+            // copy it as-is, but say so, since any references it has to
+            // relocated classes will not resolve
+            log.warn("Could not relocate references in " + entry.path + " in "
+                    + entry.jar.getFileName() + " - copying it unmodified: " + ex);
+            return bytes;
+        }
     }
 
-    private static String lSemi(String what) {
-        return 'L' + what + ';';
+    private synchronized TransformPipeline pipeline() {
+        // Writing only starts once every jar has been scanned, so the set of
+        // classes to transform is complete by the time we get here
+        if (pipeline == null) {
+            pipeline = new TransformPipeline(coalescers, ForkJoinPool.commonPool(),
+                    ForkJoinPool.getCommonPoolParallelism() * 4);
+        }
+        return pipeline;
     }
 
-    private String simpleRemap(String what) {
-        boolean is = isLSemi(what);
-        if (is) {
-            what = what.substring(1, what.length() - 1);
-        }
-        Set<RelocationEntry> es = entries.getOrDefault(what, java.util.Collections.emptySet());
-        if (es.isEmpty()) {
-            return is ? lSemi(what) : what;
+    private ConstantPoolScanner scanner() {
+        ConstantPoolScanner result = scanner;
+        if (result == null) {
+            synchronized (this) {
+                result = scanner;
+                if (result == null) {
+                    scanner = result = ConstantPoolScanner.forRelocatedClasses(entries.keySet());
+                }
+            }
         }
-        String result = stripDotClass(es.iterator().next().newJarEntryName());
-        return is ? lSemi(result) : result;
+        return result;
     }
 
-    String remapMethodSignature(String signature) {
-        if (signature == null) {
-            return null;
+    private byte[] cachedTransform(Path jar, String path, String target, byte[] bytes) throws Exception {
+        if (cache == null) {
+            return applyTransforms(jar, path, bytes);
         }
-        if (noRemapCache.contains(signature)) {
-            return signature;
+        MessageDigest digest = sha256();
+        digest.update(cacheContext());
+        String key = hex(digest.digest(bytes));
+        byte[] result = cache.get(key, target, log);
+        if (result == null) {
+            result = applyTransforms(jar, path, bytes);
+            cache.put(key, target, result, log);
         }
-        if (!signature.contains("(")) {
-            return remapType(signature);
-        }
-        MethodSignature sig = methodSignature(signature);
-        return debugRemap(signature, sig.transform(this::simpleRemap).toString(), "method");
+        return result;
     }
 
-    String remapType(String signature) {
-        if (signature == null) {
-            return null;
-        }
-        if (noRemapCache.contains(signature)) {
-            return signature;
-        }
-        if (signature.startsWith("L") && signature.endsWith(";")) {
-            TypeName sig = fieldSignature(signature);
-            return debugRemap(signature, sig.transform(this::simpleRemap).toString(), "typeFull");
-        } else {
-            TypeName nm = TypeName.simpleName(signature);
-            return debugRemap(signature, nm.transform(this::simpleRemap).toString(), "typeSimple");
+    private byte[] cacheContext() {
+        byte[] result = cacheContext;
+        if (result == null) {
+            synchronized (this) {
+                result = cacheContext;
+                if (result == null) {
+                    // Everything besides the class's own bytes which can
+                    // change the output
+                    MessageDigest digest = sha256();
+                    update(digest, CACHE_VERSION);
+                    update(digest, String.valueOf(ClassReader.class.getPackage().getImplementationVersion()));
+                    update(digest, Integer.toString(Opcodes.ASM9));
+                    update(digest, Boolean.toString(stripDebug));
+                    update(digest, rules.toString());
+                    for (String relocated : new TreeSet<>(entries.keySet())) {
+                        update(digest, relocated);
+                    }
+                    cacheContext = result = digest.digest();
+                }
+            }
         }
+        return result;
     }
 
-    String remapClassSignature(String classSignature) {
-        if (classSignature == null) {
-            return null;
-        }
-        if (noRemapCache.contains(classSignature)) {
-            return classSignature;
-        }
-//        if (classSignature.startsWith("L") && classSignature.endsWith(";")) {
-//            return debugRemap(classSignature, remapType(classSignature), "classAsSimpleType");
-//        }
-        if (classSignature.indexOf('(') >= 0) {
-            return debugRemap(classSignature, remapMethodSignature(classSignature), "classAsMethodSig");
-        }
-        ClassSignature sig = classSignature(classSignature);
-        return debugRemap(classSignature, sig.transform(this::simpleRemap).toString(), "class");
+    private static void update(MessageDigest digest, String s) {
+        digest.update(s.getBytes(UTF_8));
+        digest.update((byte) 0);
     }
 
-    private String debugRemap(String sig, String output, String kind) {
-        // This saves a LOT of parsing
-        if (sig.equals(output)) {
-            noRemapCache.add(sig);
-        }
-        if (!sig.contains("(") && output.contains("(")) {
-            throw new Error("Turned '" + sig + "' into a method sig '" + output + "'");
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16))
+                    .append(Character.forDigit(b & 0xF, 16));
         }
-        return output;
+        return sb.toString();
     }
 
-    public String remap(String what) {
-        if (what == null) {
+    private byte[] applyTransforms(Path jar, String path, byte[] bytes) throws Exception {
+        ClassReader cr = new ClassReader(bytes);
+        // We do not insert instructions, so frames can be remapped in their
+        // compressed form rather than expanded and recompressed.  The
+        // constant pool is deliberately not copied from the reader, as that
+        // would leave every old class name in it as a dead constant
+        ClassWriter cw = new ClassWriter(0);
+        cr.accept(new ClassRemapper(cw, new Remap(jar, path)), readerFlags);
+        return cw.toByteArray();
+    }
+
+    private String relocatedName(String in, int start, int end) {
+        int pkgEnd = in.lastIndexOf('/', end - 1);
+        if (!rules.relocates(in, start, pkgEnd < start ? start : pkgEnd)) {
+            // Not in any relocated package - no need to look anything up
             return null;
         }
-        boolean trailingV = what.endsWith(")V");
-        if (trailingV) {
-            what = what.substring(0, what.length() - 1);
-        }
-        String result = TypeNameUtils.remapNested(what, this::simpleRemap);
-        if (trailingV) {
-            result += "V";
+        String name = start == 0 && end == in.length() ? in : in.substring(start, end);
+        Set<RelocationEntry> es = entries.get(name);
+        if (es == null || es.isEmpty()) {
+            return null;
         }
-        return result.replaceAll(",;", ";").replaceAll("\\(>", ">(");
+        return es.iterator().next().newInternalName();
     }
 
-    public String remapPackage(String pkg) {
-        return owner.replacementPackage(pkg);
+    private SignatureRemapper remapper() {
+        return remappers.get();
     }
 
-    public String[] remap(String[] what) {
+    /**
+     * Remap an internal class name, descriptor or signature.
+     *
+     * @param what A name or signature
+     * @return The remapped string, or the same instance if unchanged
+     */
+    public String remap(String what) {
         if (what == null) {
             return null;
         }
-        String[] nue = new String[what.length];
-        for (int i = 0; i < what.length; i++) {
-            nue[i] = remap(what[i]);
+        if (what.indexOf(';') >= 0) {
+            return remapSignature(remapper(), what);
         }
-        return nue;
+        return remapper().remapName(what);
     }
 
-    public String[] remapTypes(String[] what) {
-        if (what == null) {
-            return null;
-        }
-        String[] nue = new String[what.length];
-        for (int i = 0; i < what.length; i++) {
-            nue[i] = remapType(what[i]);
+    private String remapSignature(SignatureRemapper remapper, String sig) {
+        if (sig == null || sig.indexOf(';') < 0) {
+            // No class names in it
+            return sig;
         }
-        return nue;
+        return signatureCache.get(sig, remapper::remap);
+    }
+
+    public String remapPackage(String pkg) {
+        return owner.replacementPackage(pkg);
     }
 
     @Override
@@ -242,62 +326,11 @@ final class RelocationCoalescers {
         return sb.append('\n').toString();
     }
 
-    private final class ClassRemapperImpl extends ClassRemapper {
-
-        private final Path jar;
-        private final String entry;
-
-        public ClassRemapperImpl(Path jar, String entry, ClassVisitor classVisitor) {
-            this(jar, entry, classVisitor, new Remap(jar, entry));
-        }
-
-        private ClassRemapperImpl(Path jar, String entry, ClassVisitor cv, Remap remap) {
-            super(cv, remap);
-            this.jar = jar;
-            this.entry = entry;
-        }
-
-        @Override
-        public void visit(int version, int access, String name, String signature,
-                String superName, String[] interfaces) {
-            super.visit(version, access, remap(name), remapClassSignature(signature),
-                    remapType(superName), remapTypes(interfaces));
-        }
-
-        @Override
-        public void visitNestMember(String nestMember) {
-            super.visitNestMember(remap(nestMember));
-        }
-
-        @Override
-        public void visitNestHost(String nestHost) {
-            super.visitNestHost(remap(nestHost));
-        }
-
-        @Override
-        public void visitOuterClass(String owner, String name, String descriptor) {
-            super.visitOuterClass(remapType(owner), remap(name), remapMethodSignature(descriptor));
-        }
-
-        @Override
-        public void visitEnd() {
-            super.visitEnd();
-        }
-
-        @Override
-        public void visitSource(final String source, final String debug) {
-            if (source == null) {
-                super.visitSource(null, debug);
-                return;
-            }
-            super.visitSource(remap(source), debug);
-        }
-    }
-
     private final class Remap extends Remapper {
 
         private final Path jar;
         private final String entry;
+        private final SignatureRemapper sigs = remapper();
 
         Remap(Path jar, String entry) {
             this.jar = jar;
@@ -306,8 +339,7 @@ final class RelocationCoalescers {
 
         @Override
         public String map(String internalName) {
-            String nt = remapType(internalName);
-            return super.map(nt);
+            return sigs.remapName(internalName);
         }
 
         @Override
@@ -315,76 +347,68 @@ final class RelocationCoalescers {
             if (value instanceof String) {
                 if (looksLikeFQN((String) value)) {
                     String v = ((String) value).replace('.', '/');
-                    String nue = remapType(v);
+                    String nue = sigs.remapName(v);
                     if (!v.equals(nue)) {
-                        value = stripDotClass(nue).replace('/', '.');
+                        return stripDotClass(nue).replace('/', '.');
                     }
                 }
+                return value;
             }
             return super.mapValue(value);
         }
 
         @Override
         public String mapPackageName(String name) {
-            return super.mapPackageName(remapPackage(name));
+            return remapPackage(name);
         }
 
         @Override
-        public String[] mapTypes(String[] internalNames) {
-            return super.mapTypes(remapTypes(internalNames));
+        public String mapType(String internalName) {
+            return sigs.remapName(internalName);
         }
 
         @Override
         public String mapDesc(String descriptor) {
-            String nt;
-            if (descriptor.indexOf('(') >= 0) {
-                nt = remapMethodSignature(descriptor);
-            } else {
-                nt = remapType(descriptor);
-            }
-            return super.mapDesc(nt);
+            return remapSignature(sigs, descriptor);
         }
 
         @Override
-        public String mapType(String internalName) {
-            String nt = remapType(internalName);
-            return super.mapType(nt);
-        }
-
-        @Override
-        public String mapInnerClassName(String name, String ownerName, String innerName) {
-            return super.mapInnerClassName(remap(name), remapType(ownerName), innerName);
+        public String mapMethodDesc(String methodDescriptor) {
+            return remapSignature(sigs, methodDescriptor);
         }
 
         @Override
         public String mapSignature(String signature, boolean typeSignature) {
-            String orig = signature;
-            if (signature != null) {
-                String nue = typeSignature ? remapClassSignature(signature) : remapMethodSignature(signature);
-                signature = nue;
-            }
             try {
-                return super.mapSignature(signature, typeSignature);
-            } catch (IllegalArgumentException | StringIndexOutOfBoundsException iae) {
-                throw new IllegalArgumentException("Bad signature remap '"
-                        + orig + "' -> '" + signature + "'", iae);
+                return remapSignature(sigs, signature);
+            } catch (IllegalArgumentException iae) {
+                throw new IllegalArgumentException("Bad signature in " + entry
+                        + " in " + jar.getFileName(), iae);
             }
         }
+    }
 
-        @Override
-        public String mapFieldName(String owner, String name, String descriptor) {
-            return super.mapFieldName(remapType(owner), name, descriptor);
-        }
-
-        @Override
-        public String mapRecordComponentName(String owner, String name, String descriptor) {
-            return super.mapRecordComponentName(remapType(owner), name, descriptor);
-        }
-
-        @Override
-        public String mapAnnotationAttributeName(String descriptor, String name) {
-            return super.mapAnnotationAttributeName(remapClassSignature(descriptor), remap(name));
+    static boolean looksLikeFQN(String what) {
+        if (what.isEmpty()) {
+            return false;
+        }
+        boolean isLeadingChar = true;
+        boolean dotEncountered = false;
+        for (int i = 0; i < what.length(); i++) {
+            char c = what.charAt(i);
+            if (isLeadingChar) {
+                if (!Character.isJavaIdentifierStart(c)) {
+                    return false;
+                }
+                isLeadingChar = false;
+            } else if (c == '.') {
+                isLeadingChar = true;
+                dotEncountered = true;
+            } else if (!Character.isJavaIdentifierPart(c)) {
+                return false;
+            }
         }
+        return dotEncountered && !isLeadingChar;
     }
 
     private JarEntry maybeZeroDates(JarEntry je) {
@@ -416,11 +440,58 @@ final class RelocationCoalescers {
     }
 
     RelocationCoalescer add(String path, String newPackage, JarEntry entry, Path jar) {
-        Set<RelocationEntry> en = entries.computeIfAbsent(stripDotClass(path), p -> new HashSet<>());
+        Set<RelocationEntry> en = entries.computeIfAbsent(stripDotClass(path), p -> ConcurrentHashMap.newKeySet());
         RelocationEntry nue = new RelocationEntry(newPackage, path, jar);
         en.add(nue);
         all.add(nue);
         RelocationCoalescer result = new RelocationCoalescer(nue, this);
         return result;
     }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            // Every JDK is required to provide it
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * The first class file registered for a given target path.
+     */
+    private final class Canonical {
+
+        private final Path jar;
+        private final String entryName;
+        private final long size;
+        private final long crc;
+        private byte[] digest;
+
+        Canonical(Path jar, JarEntry entry) {
+            this.jar = jar;
+            this.entryName = entry.getName();
+            this.size = entry.getSize();
+            this.crc = entry.getCrc();
+        }
+
+        boolean sameSizeAndCrc(JarEntry entry) {
+            // If either is unknown, we have to compare digests
+            return (size < 0 || entry.getSize() < 0 || size == entry.getSize())
+                    && (crc < 0 || entry.getCrc() < 0 || crc == entry.getCrc());
+        }
+
+        synchronized byte[] digest() throws IOException {
+            if (digest == null) {
+                // Only computed when another copy matches on size and CRC
+                digest = sha256().digest(reader.read(jar, entryName));
+            }
+            return digest;
+        }
+
+        @Override
+        public String toString() {
+            return entryName + " in " + jar.getFileName();
+        }
+    }
 }
@@ -23,7 +23,6 @@
  */
 package com.mastfrog.jarmerge.relocation;
 
-import com.mastfrog.util.path.UnixPath;
 import java.nio.file.Path;
 import java.util.Objects;
 
@@ -39,26 +38,30 @@ final class RelocationEntry {
     private final String oldPackage;
     private final String path;
     private final Path jar;
+    private final String newJarEntryName;
+    private final String newInternalName;
 
     public RelocationEntry(String newPackage, String path, Path jar) {
         this.newPackage = newPackage;
         this.path = path;
         this.jar = jar;
-        UnixPath up = UnixPath.get(path);
-        if (up.getNameCount() == 1) {
-            oldPackage = "";
-        } else {
-            oldPackage = up.getParent().toString('.');
-        }
+        int ix = path.lastIndexOf('/');
+        oldPackage = ix < 0 ? "" : path.substring(0, ix).replace('/', '.');
+        String fileName = path.substring(ix + 1);
+        // Computed on every remap of a reference to this class, so do it once
+        newJarEntryName = newPackage.isEmpty() ? fileName
+                : newPackage.replace('.', '/') + '/' + fileName;
+        newInternalName = newJarEntryName.endsWith(".class")
+                ? newJarEntryName.substring(0, newJarEntryName.length() - 6)
+                : newJarEntryName;
     }
 
     public String newJarEntryName() {
-        UnixPath name = UnixPath.get(path).getFileName();
-        if (newPackage.isEmpty()) {
-            return name.toString();
-        }
-        return UnixPath.get(newPackage.replace('.', '/'))
-                .resolve(name).toString();
+        return newJarEntryName;
+    }
+
+    String newInternalName() {
+        return newInternalName;
     }
 
     String path() {
@@ -80,7 +83,7 @@ final class RelocationEntry {
     @Override
     public String toString() {
         return oldPackage + " -> " + newPackage + " for "
-                + UnixPath.get(path).getFileName() + " in " + jar.getFileName()
+                + path.substring(path.lastIndexOf('/') + 1) + " in " + jar.getFileName()
                 + " --> " + newJarEntryName();
     }
 
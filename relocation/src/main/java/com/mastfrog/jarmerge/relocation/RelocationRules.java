@@ -0,0 +1,324 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.jarmerge.relocation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The relocation rules from the merge's extension properties, compiled into
+ * an immutable trie of package name segments, so that looking up whether a
+ * class or package is relocated does not involve any string concatenation or
+ * hashing, and names outside any relocated package are rejected as soon as
+ * their first segment fails to match.
+ * <p>
+ * Rules are either for a single package - <code>package:com.foo</code> - or,
+ * if suffixed with <code>.**</code>, for that package and everything beneath
+ * it - <code>package:com.foo.**</code>, in which case subpackages keep their
+ * position relative to the new package. An exact rule takes precedence over a
+ * subtree rule for the same package. Names passed in may use either
+ * <code>.</code> or <code>/</code> as a separator, and results use whichever
+ * separator is requested.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+final class RelocationRules {
+
+    static final String SUBTREE_SUFFIX = ".**";
+    private static final Node[] NO_NODES = new Node[0];
+    private static final String[] NO_SEGMENTS = new String[0];
+    private final Node root;
+    private final String defaultPackageTarget;
+
+    private RelocationRules(Node root, String defaultPackageTarget) {
+        this.root = root;
+        this.defaultPackageTarget = defaultPackageTarget;
+    }
+
+    /**
+     * Compile the rules from a map of extension properties.
+     *
+     * @param props The properties
+     * @param packagePrefix The prefix of keys which are relocation rules
+     * @param defaultPackageKey The key for the destination of classes in the
+     * default package
+     * @return A set of rules
+     */
+    static RelocationRules create(Map<String, String> props, String packagePrefix,
+            String defaultPackageKey) {
+        Builder root = new Builder();
+        props.forEach((k, v) -> {
+            if (k.startsWith(packagePrefix) && v != null) {
+                String pkg = k.substring(packagePrefix.length()).replace('/', '.');
+                boolean subtree = pkg.endsWith(SUBTREE_SUFFIX);
+                if (subtree) {
+                    pkg = pkg.substring(0, pkg.length() - SUBTREE_SUFFIX.length());
+                }
+                if (pkg.isEmpty()) {
+                    return;
+                }
+                Builder b = root;
+                for (String seg : pkg.split("\\.")) {
+                    b = b.child(seg);
+                }
+                String target = v.trim().replace('/', '.');
+                if (subtree) {
+                    b.subtreeTarget = target;
+                } else {
+                    b.exactTarget = target;
+                }
+            }
+        });
+        String dp = props.get(defaultPackageKey);
+        return new RelocationRules(root.build(), dp == null ? null : dp.trim().replace('/', '.'));
+    }
+
+    boolean isEmpty() {
+        return root.kids.length == 0 && defaultPackageTarget == null;
+    }
+
+    /**
+     * The package classes in the default package are moved to, if any.
+     *
+     * @return A dot-delimited package name or null
+     */
+    String defaultPackageTarget() {
+        return defaultPackageTarget;
+    }
+
+    /**
+     * Determine whether any rule covers the package name that occupies the
+     * range from <code>start</code> to <code>end</code> in the passed string,
+     * without allocating anything.
+     *
+     * @param name A string containing a package or class name
+     * @param start The start of the name
+     * @param end The end of the package portion of the name
+     * @return true if it is relocated
+     */
+    boolean relocates(String name, int start, int end) {
+        if (end <= start) {
+            return defaultPackageTarget != null;
+        }
+        Node node = root;
+        int pos = start;
+        while (true) {
+            int segEnd = segmentEnd(name, pos, end);
+            node = node.child(name, pos, segEnd);
+            if (node == null) {
+                return false;
+            }
+            if (node.subtreeTarget != null) {
+                return true;
+            }
+            if (segEnd == end) {
+                return node.exactTarget != null;
+            }
+            pos = segEnd + 1;
+        }
+    }
+
+    /**
+     * Get the package the package name occupying the range from 0 to
+     * <code>end</code> in the passed string is relocated to.
+     *
+     * @param name A package or class name
+     * @param end The end of the package portion of the name
+     * @param separator The separator to use in the result
+     * @return A package name, or null if the package is not relocated
+     */
+    String relocate(String name, int end, char separator) {
+        if (end <= 0) {
+            return defaultPackageTarget == null ? null
+                    : defaultPackageTarget.replace('.', separator);
+        }
+        Node node = root;
+        Node subtree = null;
+        int subtreeEnd = -1;
+        int pos = 0;
+        while (node != null) {
+            int segEnd = segmentEnd(name, pos, end);
+            node = node.child(name, pos, segEnd);
+            if (node == null) {
+                break;
+            }
+            if (segEnd == end && node.exactTarget != null) {
+                return node.exact(separator);
+            }
+            if (node.subtreeTarget != null) {
+                subtree = node;
+                subtreeEnd = segEnd;
+            }
+            if (segEnd == end) {
+                break;
+            }
+            pos = segEnd + 1;
+        }
+        if (subtree == null) {
+            return null;
+        }
+        String base = subtree.subtree(separator);
+        if (subtreeEnd == end) {
+            return base;
+        }
+        StringBuilder sb = new StringBuilder(base.length() + end - subtreeEnd)
+                .append(base);
+        for (int i = subtreeEnd; i < end; i++) {
+            char c = name.charAt(i);
+            sb.append(isSeparator(c) ? separator : c);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Get the replacement for a package name, using the same separator the
+     * name does.
+     *
+     * @param pkg A package name
+     * @return The replacement, or the original if it is not relocated
+     */
+    String replacementPackage(String pkg) {
+        String result = relocate(pkg, pkg.length(), pkg.indexOf('/') >= 0 ? '/' : '.');
+        return result == null ? pkg : result;
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == '/' || c == '.';
+    }
+
+    private static int segmentEnd(String name, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (isSeparator(name.charAt(i))) {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    private static int compare(String segment, String name, int start, int end) {
+        int len = end - start;
+        int max = Math.min(segment.length(), len);
+        for (int i = 0; i < max; i++) {
+            int diff = segment.charAt(i) - name.charAt(start + i);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return segment.length() - len;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        root.describe("", sb);
+        if (defaultPackageTarget != null) {
+            sb.append("<default> -> ").append(defaultPackageTarget).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static final class Node {
+
+        private final String[] segments;
+        private final Node[] kids;
+        private final String exactTarget;
+        private final String subtreeTarget;
+        private final String exactTargetInternal;
+        private final String subtreeTargetInternal;
+
+        Node(String[] segments, Node[] kids, String exactTarget, String subtreeTarget) {
+            this.segments = segments;
+            this.kids = kids;
+            this.exactTarget = exactTarget;
+            this.subtreeTarget = subtreeTarget;
+            // Precompute the internal forms, which is what we are usually
+            // asked for
+            this.exactTargetInternal = exactTarget == null ? null : exactTarget.replace('.', '/');
+            this.subtreeTargetInternal = subtreeTarget == null ? null : subtreeTarget.replace('.', '/');
+        }
+
+        Node child(String name, int start, int end) {
+            int lo = 0;
+            int hi = segments.length - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int cmp = compare(segments[mid], name, start, end);
+                if (cmp < 0) {
+                    lo = mid + 1;
+                } else if (cmp > 0) {
+                    hi = mid - 1;
+                } else {
+                    return kids[mid];
+                }
+            }
+            return null;
+        }
+
+        String exact(char separator) {
+            return separator == '/' ? exactTargetInternal : exactTarget.replace('.', separator);
+        }
+
+        String subtree(char separator) {
+            return separator == '/' ? subtreeTargetInternal : subtreeTarget.replace('.', separator);
+        }
+
+        void describe(String prefix, StringBuilder sb) {
+            if (exactTarget != null) {
+                sb.append(prefix).append(" -> ").append(exactTarget).append('\n');
+            }
+            if (subtreeTarget != null) {
+                sb.append(prefix).append(SUBTREE_SUFFIX).append(" -> ")
+                        .append(subtreeTarget).append('\n');
+            }
+            for (int i = 0; i < segments.length; i++) {
+                kids[i].describe(prefix.isEmpty() ? segments[i] : prefix + '.' + segments[i], sb);
+            }
+        }
+    }
+
+    private static final class Builder {
+
+        private final Map<String, Builder> kids = new TreeMap<>();
+        String exactTarget;
+        String subtreeTarget;
+
+        Builder child(String seg) {
+            return kids.computeIfAbsent(seg, s -> new Builder());
+        }
+
+        Node build() {
+            if (kids.isEmpty()) {
+                return new Node(NO_SEGMENTS, NO_NODES, exactTarget, subtreeTarget);
+            }
+            // TreeMap gives us the segments in the order child() searches them in
+            List<Node> nodes = new ArrayList<>(kids.size());
+            kids.values().forEach(b -> nodes.add(b.build()));
+            return new Node(kids.keySet().toArray(NO_SEGMENTS),
+                    nodes.toArray(NO_NODES), exactTarget, subtreeTarget);
+        }
+    }
+}
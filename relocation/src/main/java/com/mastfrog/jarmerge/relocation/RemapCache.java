@@ -0,0 +1,119 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.jarmerge.relocation;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+
+/**
+ * A bounded, concurrent memo of remapped descriptors and signatures, which
+ * remembers both those that changed and those that did not, since the same
+ * handful of signatures recur in thousands of methods.
+ * <p>
+ * Eviction is generational: new results go into a young generation; when it
+ * reaches the maximum size, it becomes the old generation and the previous old
+ * generation is discarded wholesale. A hit in the old generation is copied
+ * back into the young one, so anything used at least once per generation
+ * survives, and the cache never holds more than twice its maximum size,
+ * without the bookkeeping of a true LRU on every lookup.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+final class RemapCache {
+
+    static final int DEFAULT_MAX_SIZE = 8192;
+    private final int maxSize;
+    private volatile Map<String, String> young;
+    private volatile Map<String, String> old;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    RemapCache(int maxSize) {
+        this.maxSize = Math.max(16, maxSize);
+        young = new ConcurrentHashMap<>(Math.min(this.maxSize, 1024));
+        old = new ConcurrentHashMap<>(16);
+    }
+
+    /**
+     * Get the cached result for a string, computing and caching it if absent.
+     *
+     * @param key A signature
+     * @param remapper The remapping function
+     * @return The result
+     */
+    String get(String key, UnaryOperator<String> remapper) {
+        Map<String, String> y = young;
+        String result = y.get(key);
+        if (result != null) {
+            hits.increment();
+            return result;
+        }
+        result = old.get(key);
+        if (result != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+            result = remapper.apply(key);
+        }
+        y.put(key, result);
+        if (y.size() >= maxSize) {
+            rotate(y);
+        }
+        return result;
+    }
+
+    private synchronized void rotate(Map<String, String> full) {
+        if (young == full) {
+            evictions.add(old.size());
+            old = full;
+            young = new ConcurrentHashMap<>(Math.min(maxSize, 1024));
+        }
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+
+    long evictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public String toString() {
+        long h = hits();
+        long m = misses();
+        long total = h + m;
+        return "Signature cache: " + h + " hits, " + m + " misses ("
+                + (total == 0 ? 0 : (h * 100) / total) + "% hit rate), "
+                + evictions() + " evicted, max " + maxSize + " per generation";
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.jarmerge.relocation;
+
+/**
+ * Rewrites the class names in a JVM descriptor or generic signature in a
+ * single left-to-right pass over the grammar shared by both (JVMS 4.3 and
+ * 4.7.9.1). Unchanged spans are copied straight into a reused buffer only once
+ * something has actually changed; if nothing does, the original string
+ * instance is returned, which is by far the common case.
+ * <p>
+ * Not thread-safe - use one instance per thread.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+final class SignatureRemapper {
+
+    private final NameLookup lookup;
+    private final StringBuilder sb = new StringBuilder(128);
+    private String input;
+    private int copied;
+    private boolean changed;
+
+    SignatureRemapper(NameLookup lookup) {
+        this.lookup = lookup;
+    }
+
+    /**
+     * Looks up the new name of a class, given a region of a string containing
+     * its internal name.
+     */
+    interface NameLookup {
+
+        /**
+         * Get the new internal name of a class.
+         *
+         * @param in A string
+         * @param start The start of the internal name
+         * @param end The end of the internal name
+         * @return The new name, or null if it is not relocated
+         */
+        String relocated(String in, int start, int end);
+    }
+
+    /**
+     * Remap an internal class name, or an array type descriptor.
+     *
+     * @param internalName An internal name
+     * @return The new name, or the same string if unchanged
+     */
+    String remapName(String internalName) {
+        if (internalName == null || internalName.isEmpty()) {
+            return internalName;
+        }
+        if (internalName.charAt(0) == '[') {
+            return remap(internalName);
+        }
+        String result = lookup.relocated(internalName, 0, internalName.length());
+        return result == null ? internalName : result;
+    }
+
+    /**
+     * Remap a field or method descriptor, or a class, field or method
+     * signature.
+     *
+     * @param sig A descriptor or signature
+     * @return The remapped string, or the same string if unchanged
+     * @throws IllegalArgumentException if the signature is malformed
+     */
+    String remap(String sig) {
+        // Every class reference ends with a ;
+        if (sig == null || sig.indexOf(';') < 0) {
+            return sig;
+        }
+        input = sig;
+        copied = 0;
+        changed = false;
+        sb.setLength(0);
+        try {
+            int len = sig.length();
+            int i = 0;
+            if (sig.charAt(0) == '<') {
+                i = formalTypeParameters(1);
+            }
+            if (i < len && sig.charAt(i) == '(') {
+                i++;
+                while (sig.charAt(i) != ')') {
+                    i = type(i);
+                }
+                i = type(i + 1);
+                while (i < len && sig.charAt(i) == '^') {
+                    i = type(i + 1);
+                }
+            } else {
+                // A field descriptor, or superclass and interfaces
+                while (i < len) {
+                    i = type(i);
+                }
+            }
+            if (i != len) {
+                throw malformed(i, null);
+            }
+            if (!changed) {
+                return sig;
+            }
+            return sb.append(sig, copied, len).toString();
+        } catch (IndexOutOfBoundsException ex) {
+            throw malformed(sig.length(), ex);
+        } finally {
+            input = null;
+        }
+    }
+
+    private int formalTypeParameters(int i) {
+        while (input.charAt(i) != '>') {
+            int colon = input.indexOf(':', i);
+            if (colon < 0) {
+                throw malformed(i, null);
+            }
+            i = colon;
+            // Class bound, which may be empty, then any interface bounds
+            while (input.charAt(i) == ':') {
+                char c = input.charAt(++i);
+                if (c == 'L' || c == '[' || c == 'T') {
+                    i = type(i);
+                }
+            }
+        }
+        return i + 1;
+    }
+
+    private int type(int i) {
+        switch (input.charAt(i)) {
+            case 'B':
+            case 'C':
+            case 'D':
+            case 'F':
+            case 'I':
+            case 'J':
+            case 'S':
+            case 'Z':
+            case 'V':
+                return i + 1;
+            case '[':
+                return type(i + 1);
+            case 'T':
+                int semi = input.indexOf(';', i);
+                if (semi < 0) {
+                    throw malformed(i, null);
+                }
+                return semi + 1;
+            case 'L':
+                return classType(i + 1);
+            default:
+                throw malformed(i, null);
+        }
+    }
+
+    private int classType(int start) {
+        int i = nameEnd(start);
+        replace(start, i, lookup.relocated(input, start, i));
+        while (true) {
+            switch (input.charAt(i)) {
+                case ';':
+                    return i + 1;
+                case '<':
+                    i = typeArguments(i + 1);
+                    break;
+                case '.':
+                    // Inner class of a parameterized type - only the simple
+                    // name follows, which relocation does not change
+                    i = nameEnd(i + 1);
+                    break;
+                default:
+                    throw malformed(i, null);
+            }
+        }
+    }
+
+    private int typeArguments(int i) {
+        while (input.charAt(i) != '>') {
+            switch (input.charAt(i)) {
+                case '*':
+                    i++;
+                    break;
+                case '+':
+                case '-':
+                    i = type(i + 1);
+                    break;
+                default:
+                    i = type(i);
+            }
+        }
+        return i + 1;
+    }
+
+    private int nameEnd(int i) {
+        while (true) {
+            char c = input.charAt(i);
+            if (c == ';' || c == '<' || c == '.') {
+                return i;
+            }
+            i++;
+        }
+    }
+
+    private void replace(int start, int end, String replacement) {
+        if (replacement != null) {
+            changed = true;
+            sb.append(input, copied, start).append(replacement);
+            copied = end;
+        }
+    }
+
+    private IllegalArgumentException malformed(int at, Throwable cause) {
+        return new IllegalArgumentException("Malformed descriptor or signature at "
+                + at + ": '" + input + "'", cause);
+    }
+}
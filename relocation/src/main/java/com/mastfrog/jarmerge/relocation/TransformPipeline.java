@@ -0,0 +1,115 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.jarmerge.relocation;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs class file transforms ahead of the thread writing the output JAR.
+ * <p>
+ * Coalescers are written in the order of their paths, so once the set of
+ * classes is complete, we know the order they will be asked for, and can keep
+ * a window of transforms running on a pool of threads ahead of the writer,
+ * which only has to pick up the finished bytes. The window bounds how many
+ * transformed class files are held in memory at once.
+ * </p><p>
+ * Not thread-safe - only the writer thread calls <code>take()</code>.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+final class TransformPipeline {
+
+    private final List<TransformingCoalescer> order;
+    private final Map<TransformingCoalescer, CompletableFuture<byte[]>> inFlight
+            = new IdentityHashMap<>();
+    private final Set<TransformingCoalescer> taken
+            = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Executor executor;
+    private final int window;
+    private int next;
+
+    TransformPipeline(Collection<? extends TransformingCoalescer> coalescers,
+            Executor executor, int window) {
+        this.order = new ArrayList<>(coalescers);
+        // The same order PhaseRunner writes coalescers in
+        Collections.sort(this.order);
+        this.executor = executor;
+        this.window = Math.max(1, window);
+    }
+
+    /**
+     * Get the transformed bytes for a coalescer, waiting for them if they are
+     * still being computed, and computing them on the calling thread if they
+     * were not requested in the expected order.
+     *
+     * @param coa A coalescer
+     * @return The bytes
+     * @throws Exception If the transform failed
+     */
+    byte[] take(TransformingCoalescer coa) throws Exception {
+        taken.add(coa);
+        CompletableFuture<byte[]> result = inFlight.remove(coa);
+        fill();
+        if (result == null) {
+            return coa.transformedBytes();
+        }
+        try {
+            return result.get();
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw ex;
+        }
+    }
+
+    private void fill() {
+        while (inFlight.size() < window && next < order.size()) {
+            TransformingCoalescer coa = order.get(next++);
+            if (!taken.contains(coa)) {
+                inFlight.put(coa, CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return coa.transformedBytes();
+                    } catch (Exception ex) {
+                        throw new CompletionException(ex);
+                    }
+                }, executor));
+            }
+        }
+    }
+}
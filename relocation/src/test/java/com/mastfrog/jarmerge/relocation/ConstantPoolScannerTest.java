@@ -0,0 +1,151 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.jarmerge.relocation;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import static org.objectweb.asm.Opcodes.ACC_PUBLIC;
+import static org.objectweb.asm.Opcodes.ACC_STATIC;
+import static org.objectweb.asm.Opcodes.ARETURN;
+import static org.objectweb.asm.Opcodes.RETURN;
+import static org.objectweb.asm.Opcodes.V11;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class ConstantPoolScannerTest {
+
+    private final ConstantPoolScanner scanner = ConstantPoolScanner.forRelocatedClasses(
+            Arrays.asList("com/old/Foo", "com/old/Bar$Inner", "Dflt"));
+
+    @Test
+    public void testDescriptorOnly() {
+        // No CONSTANT_Class for com/old/Foo - it only appears in a descriptor
+        assertTrue(scanner.mayReferenceRelocated(classWith(cw -> {
+            MethodVisitor mv = cw.visitMethod(ACC_PUBLIC | ACC_STATIC, "take",
+                    "(Lcom/old/Foo;)V", null, null);
+            mv.visitCode();
+            mv.visitInsn(RETURN);
+            mv.visitMaxs(0, 1);
+            mv.visitEnd();
+        })));
+    }
+
+    @Test
+    public void testSignatureOnly() {
+        assertTrue(scanner.mayReferenceRelocated(classWith(cw
+                -> cw.visitField(ACC_PUBLIC, "items", "Ljava/util/List;",
+                        "Ljava/util/List<Lcom/old/Foo;>;", null).visitEnd())));
+    }
+
+    @Test
+    public void testDottedStringConstant() {
+        assertTrue(scanner.mayReferenceRelocated(classWith(cw -> {
+            MethodVisitor mv = cw.visitMethod(ACC_PUBLIC | ACC_STATIC, "name",
+                    "()Ljava/lang/String;", null, null);
+            mv.visitCode();
+            mv.visitLdcInsn("com.old.Foo");
+            mv.visitInsn(ARETURN);
+            mv.visitMaxs(1, 0);
+            mv.visitEnd();
+        })));
+    }
+
+    @Test
+    public void testDefaultPackageClass() {
+        // As a bare class name, as the superclass
+        assertTrue(scanner.mayReferenceRelocated(classNamed("user/Sub", "Dflt", cw -> {
+        })));
+        // As a descriptor
+        assertTrue(scanner.mayReferenceRelocated(classWith(cw
+                -> cw.visitField(ACC_PUBLIC, "d", "LDflt;", null, null).visitEnd())));
+        // As a type argument
+        assertTrue(scanner.mayReferenceRelocated(classWith(cw
+                -> cw.visitField(ACC_PUBLIC, "d", "Ljava/util/List;",
+                        "Ljava/util/List<LDflt;>;", null).visitEnd())));
+    }
+
+    @Test
+    public void testSimilarNamesDoNotMatch() {
+        // A package which merely starts with the same characters
+        assertFalse(scanner.mayReferenceRelocated(classWith(cw
+                -> cw.visitField(ACC_PUBLIC, "o", "Lcom/oldish/Foo;", null, null).visitEnd())));
+        assertFalse(scanner.mayReferenceRelocated(classWith(cw
+                -> cw.visitField(ACC_PUBLIC, "o", "Ljava/lang/String;", null, "com.oldish.Foo")
+                        .visitEnd())));
+        // A default-package name which is a prefix of another
+        assertFalse(scanner.mayReferenceRelocated(classWith(cw
+                -> cw.visitField(ACC_PUBLIC, "d", "LDfltx;", null, null).visitEnd())));
+    }
+
+    @Test
+    public void testUnrelatedClassIsPassedThrough() {
+        assertFalse(scanner.mayReferenceRelocated(classWith(cw -> {
+            MethodVisitor mv = cw.visitMethod(ACC_PUBLIC | ACC_STATIC, "run",
+                    "(Ljava/util/Map;J)Ljava/lang/Object;",
+                    "(Ljava/util/Map<Ljava/lang/String;Ljava/lang/Long;>;J)Ljava/lang/Object;", null);
+            mv.visitCode();
+            mv.visitLdcInsn(Long.MAX_VALUE);
+            mv.visitLdcInsn(1.5D);
+            mv.visitLdcInsn("some.other.Thing");
+            mv.visitInsn(ARETURN);
+            mv.visitMaxs(5, 3);
+            mv.visitEnd();
+        })));
+    }
+
+    @Test
+    public void testMalformedIsAssumedToReference() {
+        byte[] bytes = classWith(cw -> {
+        });
+        assertTrue(scanner.mayReferenceRelocated(Arrays.copyOf(bytes, 20)));
+        assertTrue(scanner.mayReferenceRelocated(new byte[]{1, 2, 3}));
+    }
+
+    @Test
+    public void testNothingRelocated() {
+        ConstantPoolScanner empty = ConstantPoolScanner.forRelocatedClasses(Arrays.asList());
+        assertTrue(empty.isEmpty());
+        assertFalse(empty.mayReferenceRelocated(classWith(cw
+                -> cw.visitField(ACC_PUBLIC, "o", "Lcom/old/Foo;", null, null).visitEnd())));
+    }
+
+    private static byte[] classWith(Consumer<ClassWriter> body) {
+        return classNamed("user/Client", "java/lang/Object", body);
+    }
+
+    private static byte[] classNamed(String name, String superclass, Consumer<ClassWriter> body) {
+        ClassWriter cw = new ClassWriter(0);
+        cw.visit(V11, ACC_PUBLIC, name, null, superclass, null);
+        body.accept(cw);
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+}
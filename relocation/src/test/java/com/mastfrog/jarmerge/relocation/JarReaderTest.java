@@ -0,0 +1,69 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.jarmerge.relocation;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class JarReaderTest {
+
+    @Test
+    public void testCloseAllReleasesRetainedJars(@TempDir Path dir) throws IOException {
+        Path a = jar(dir.resolve("a.jar"), new byte[]{1, 2});
+        Path b = jar(dir.resolve("b.jar"), new byte[]{3});
+        JarReader reader = new JarReader();
+        reader.retain(a);
+        reader.retain(a);
+        reader.retain(b);
+        assertArrayEquals(new byte[]{1, 2}, reader.read(a, "x/Foo.class"));
+        reader.release(a);
+        assertArrayEquals(new byte[]{1, 2}, reader.read(a, "x/Foo.class"));
+        assertArrayEquals(new byte[]{3}, reader.read(b, "x/Foo.class"));
+        // As when a merge fails with entries from both still unwritten
+        reader.closeAll();
+        assertThrows(IllegalStateException.class, () -> reader.read(a, "x/Foo.class"));
+        assertThrows(IllegalStateException.class, () -> reader.read(b, "x/Foo.class"));
+    }
+
+    private static Path jar(Path path, byte[] content) throws IOException {
+        try ( OutputStream out = Files.newOutputStream(path);  JarOutputStream jar = new JarOutputStream(out)) {
+            jar.putNextEntry(new JarEntry("x/Foo.class"));
+            jar.write(content);
+            jar.closeEntry();
+        }
+        return path;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.jarmerge.relocation;
+
+import com.mastfrog.jarmerge.JarMerge;
+import com.mastfrog.jarmerge.MergeLog;
+import static com.mastfrog.jarmerge.relocation.ClassRelocatingJarFilter.RELOCATION_CACHE_MAX_BYTES;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class RelocationCacheTest {
+
+    @Test
+    public void testStoreHitAndEvict(@TempDir Path dir) throws IOException {
+        WarnLog log = new WarnLog();
+        RelocationCache cache = new RelocationCache(dir, 100);
+        assertNull(cache.get("aabbcc", "org/neu/Foo.class", log));
+        cache.put("aabbcc", "org/neu/Foo.class", new byte[]{1, 2, 3}, log);
+        assertArrayEquals(new byte[]{1, 2, 3}, cache.get("aabbcc", "org/neu/Foo.class", log));
+        // A different target name is a miss, not a wrong answer
+        assertNull(cache.get("aabbcc", "org/other/Foo.class", log));
+
+        cache.put("ddeeff", "org/neu/Bar.class", new byte[60], log);
+        cache.put("112233", "org/neu/Baz.class", new byte[60], log);
+        try ( Stream<Path> str = Files.list(dir.resolve("aa"))) {
+            str.forEach(p -> {
+                try {
+                    // Make Foo the most recently used
+                    Files.setLastModifiedTime(p, FileTime.fromMillis(System.currentTimeMillis() + 100_000));
+                } catch (IOException ex) {
+                    throw new AssertionError(ex);
+                }
+            });
+        }
+        Files.setLastModifiedTime(dir.resolve("dd").resolve("ddeeff.reloc"), FileTime.fromMillis(0));
+        cache.evict(log);
+        assertNotNull(cache.get("aabbcc", "org/neu/Foo.class", log));
+        assertNull(cache.get("ddeeff", "org/neu/Bar.class", log));
+        assertEquals(0, log.warnings.size(), log.warnings::toString);
+    }
+
+    @Test
+    public void testMaxBytesIsValidated() {
+        assertEquals(1024L, filter(" 1024 ").relocationCacheMaxBytes());
+        assertEquals(RelocationCache.DEFAULT_MAX_BYTES, filter("").relocationCacheMaxBytes());
+        IllegalArgumentException ex = assertThrows(IllegalArgumentException.class,
+                () -> filter("8Mb").relocationCacheMaxBytes());
+        assertTrue(ex.getMessage().contains(RELOCATION_CACHE_MAX_BYTES), ex::getMessage);
+        assertThrows(IllegalArgumentException.class, () -> filter("0").relocationCacheMaxBytes());
+        assertThrows(IllegalArgumentException.class, () -> filter("-5").relocationCacheMaxBytes());
+    }
+
+    private static ClassRelocatingJarFilter filter(String maxBytes) {
+        return new ClassRelocatingJarFilter(JarMerge.builder()
+                .withExtensionProperty(RELOCATION_CACHE_MAX_BYTES, maxBytes)
+                .finalJarName("x"));
+    }
+
+    static final class WarnLog implements MergeLog {
+
+        final List<String> warnings = new ArrayList<>();
+        final List<String> debug = new ArrayList<>();
+
+        @Override
+        public MergeLog log(String string) {
+            return this;
+        }
+
+        @Override
+        public synchronized MergeLog debug(String string) {
+            debug.add(string);
+            return this;
+        }
+
+        @Override
+        public synchronized MergeLog warn(String string) {
+            warnings.add(string);
+            return this;
+        }
+
+        @Override
+        public MergeLog error(String string) {
+            return this;
+        }
+    }
+}
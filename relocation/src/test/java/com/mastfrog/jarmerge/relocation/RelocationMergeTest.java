@@ -0,0 +1,272 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.jarmerge.relocation;
+
+import com.mastfrog.jarmerge.JarMerge;
+import com.mastfrog.jarmerge.relocation.RelocationCacheTest.WarnLog;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Collectors;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import static org.objectweb.asm.Opcodes.ACC_PUBLIC;
+import static org.objectweb.asm.Opcodes.ALOAD;
+import static org.objectweb.asm.Opcodes.ASM9;
+import static org.objectweb.asm.Opcodes.INVOKESPECIAL;
+import static org.objectweb.asm.Opcodes.RETURN;
+import static org.objectweb.asm.Opcodes.V11;
+
+/**
+ * Runs whole merges with relocation, to test what is written.
+ *
+ * @author Tim Boudreau
+ */
+public class RelocationMergeTest {
+
+    @Test
+    public void testIdenticalCopiesAreWrittenOnce(@TempDir Path dir) throws Exception {
+        byte[] foo = withField("com/old/Foo", "first");
+        Path a = jar(dir.resolve("a.jar"), "com/old/Foo.class", foo);
+        Path b = jar(dir.resolve("b.jar"), "com/old/Foo.class", foo.clone());
+        WarnLog log = new WarnLog();
+        Path out = merge(dir, log, a, b);
+        assertEquals(Collections.singletonList("org/neu/Foo.class"), classEntries(out));
+        assertEquals(Collections.singletonList("first"), fields(out, "org/neu/Foo.class"));
+        assertEquals(Collections.emptyList(), conflicts(log));
+        assertEquals(1, log.debug.stream().filter(d -> d.startsWith("Identical copies")).count(),
+                log.debug::toString);
+    }
+
+    @Test
+    public void testConflictingCopiesKeepTheFirstAndWarn(@TempDir Path dir) throws Exception {
+        Path a = jar(dir.resolve("a.jar"), "com/old/Foo.class", withField("com/old/Foo", "first"));
+        Path b = jar(dir.resolve("b.jar"), "com/old/Foo.class", withField("com/old/Foo", "second"));
+        WarnLog log = new WarnLog();
+        Path out = merge(dir, log, a, b);
+        assertEquals(Collections.singletonList("org/neu/Foo.class"), classEntries(out));
+        assertEquals(Collections.singletonList("first"), fields(out, "org/neu/Foo.class"));
+        List<String> conflicts = conflicts(log);
+        assertEquals(1, conflicts.size(), log.warnings::toString);
+        assertTrue(conflicts.get(0).contains("a.jar") && conflicts.get(0).contains("b.jar"),
+                conflicts::toString);
+    }
+
+    @Test
+    public void testUnknownSizeOrCrcFallsBackToDigest(@TempDir Path dir) throws Exception {
+        byte[] first = withField("com/old/Foo", "first");
+        Path a = jar(dir.resolve("a.jar"), "com/old/Foo.class", first);
+        Path b = jar(dir.resolve("b.jar"), "com/old/Foo.class", first.clone());
+        Path c = jar(dir.resolve("c.jar"), "com/old/Foo.class", withField("com/old/Foo", "other"));
+        ClassRelocatingJarFilter filter = new ClassRelocatingJarFilter(JarMerge.builder()
+                .withExtensionProperty("package:com.old", "org.neu").finalJarName("x"));
+        RelocationCoalescers coas = new RelocationCoalescers(filter);
+        WarnLog log = new WarnLog();
+        try ( JarFile ja = new JarFile(a.toFile());  JarFile jb = new JarFile(b.toFile());  JarFile jc = new JarFile(c.toFile())) {
+            // Entries constructed by name have a size and CRC of -1, as
+            // entries read from a stream rather than a central directory may
+            JarEntry unknown = new JarEntry("com/old/Foo.class");
+            assertTrue(coas.register(new AnyCoalescer("com/old/Foo.class", unknown, a, coas),
+                    "org/neu/Foo.class", a, unknown, ja, log));
+            assertFalse(coas.register(new AnyCoalescer("com/old/Foo.class", unknown, b, coas),
+                    "org/neu/Foo.class", b, new JarEntry("com/old/Foo.class"), jb, log));
+            assertEquals(Collections.emptyList(), log.warnings);
+            assertEquals(1, log.debug.size(), log.debug::toString);
+            // A known size and CRC on one side only is not enough to say
+            // they differ
+            JarEntry known = jc.getJarEntry("com/old/Foo.class");
+            assertTrue(known.getSize() >= 0 && known.getCrc() >= 0);
+            assertFalse(coas.register(new AnyCoalescer("com/old/Foo.class", known, c, coas),
+                    "org/neu/Foo.class", c, known, jc, log));
+            assertEquals(1, conflicts(log).size(), log.warnings::toString);
+        }
+    }
+
+    @Test
+    public void testStripDebug(@TempDir Path dir) throws Exception {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("com/old/Foo.class", withDebugInfo("com/old/Foo", "java/lang/Object"));
+        // References nothing relocated, so would otherwise be copied verbatim
+        entries.put("user/Plain.class", withDebugInfo("user/Plain", "java/lang/Object"));
+        Path in = jar(dir.resolve("in.jar"), entries);
+
+        Path unstripped = merge(dir, new WarnLog(), in);
+        assertEquals(Arrays.asList("SourceFile", "LineNumberTable", "LocalVariableTable"),
+                debugInfo(read(unstripped, "user/Plain.class")));
+        assertEquals(Arrays.asList("SourceFile", "LineNumberTable", "LocalVariableTable"),
+                debugInfo(read(unstripped, "org/neu/Foo.class")));
+
+        Path stripped = merge(dir, new WarnLog(),
+                Collections.singletonMap(ClassRelocatingJarFilter.STRIP_DEBUG, "true"), in);
+        assertEquals(Arrays.asList("org/neu/Foo.class", "user/Plain.class"), classEntries(stripped));
+        assertEquals(Collections.emptyList(), debugInfo(read(stripped, "user/Plain.class")));
+        assertEquals(Collections.emptyList(), debugInfo(read(stripped, "org/neu/Foo.class")));
+    }
+
+    private static List<String> debugInfo(byte[] classFile) {
+        Set<String> result = new LinkedHashSet<>();
+        new ClassReader(classFile).accept(new ClassVisitor(ASM9) {
+            @Override
+            public void visitSource(String source, String debug) {
+                if (source != null) {
+                    result.add("SourceFile");
+                }
+            }
+
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor,
+                    String signature, String[] exceptions) {
+                return new MethodVisitor(ASM9) {
+                    @Override
+                    public void visitLineNumber(int line, Label start) {
+                        result.add("LineNumberTable");
+                    }
+
+                    @Override
+                    public void visitLocalVariable(String name, String descriptor,
+                            String signature, Label start, Label end, int index) {
+                        result.add("LocalVariableTable");
+                    }
+                };
+            }
+        }, 0);
+        return new ArrayList<>(result);
+    }
+
+    private static byte[] withDebugInfo(String className, String superclass) {
+        ClassWriter cw = new ClassWriter(0);
+        cw.visit(V11, ACC_PUBLIC, className, null, superclass, null);
+        cw.visitSource(className.substring(className.lastIndexOf('/') + 1) + ".java", null);
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        Label start = new Label();
+        mv.visitLabel(start);
+        mv.visitLineNumber(3, start);
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESPECIAL, superclass, "<init>", "()V", false);
+        mv.visitInsn(RETURN);
+        Label end = new Label();
+        mv.visitLabel(end);
+        mv.visitLocalVariable("this", "L" + className + ";", null, start, end, 0);
+        mv.visitMaxs(1, 1);
+        mv.visitEnd();
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    static Path merge(Path dir, WarnLog log, Path... jars) throws Exception {
+        return merge(dir, log, Collections.emptyMap(), jars);
+    }
+
+    static Path merge(Path dir, WarnLog log, Map<String, String> props, Path... jars) throws Exception {
+        Path out = dir.resolve("merged.jar");
+        JarMerge.Builder builder = JarMerge.builder().noSystemExitOnError()
+                .withLoggerFactory((name, phase, merge) -> log)
+                .withExtensionProperty("package:com.old", "org.neu")
+                .withExtensionProperties(props);
+        for (Path jar : jars) {
+            builder.addJar(jar);
+        }
+        builder.finalJarName(out.toString()).run();
+        return out;
+    }
+
+    private static List<String> conflicts(WarnLog log) {
+        return log.warnings.stream().filter(w -> w.startsWith("Conflicting versions"))
+                .collect(Collectors.toList());
+    }
+
+    static Path jar(Path path, String name, byte[] bytes) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put(name, bytes);
+        return jar(path, entries);
+    }
+
+    static Path jar(Path path, Map<String, byte[]> entries) throws IOException {
+        try ( OutputStream os = Files.newOutputStream(path);  JarOutputStream out = new JarOutputStream(os)) {
+            for (Map.Entry<String, byte[]> e : entries.entrySet()) {
+                out.putNextEntry(new JarEntry(e.getKey()));
+                out.write(e.getValue());
+                out.closeEntry();
+            }
+        }
+        return path;
+    }
+
+    static List<String> classEntries(Path jar) throws IOException {
+        try ( JarFile file = new JarFile(jar.toFile())) {
+            return file.stream().map(JarEntry::getName).filter(n -> n.endsWith(".class"))
+                    .sorted().collect(Collectors.toList());
+        }
+    }
+
+    static byte[] read(Path jar, String name) throws IOException {
+        try ( JarFile file = new JarFile(jar.toFile());  InputStream in = file.getInputStream(file.getEntry(name))) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static List<String> fields(Path jar, String name) throws IOException {
+        List<String> result = new ArrayList<>();
+        new ClassReader(read(jar, name)).accept(new ClassVisitor(ASM9) {
+            @Override
+            public FieldVisitor visitField(int access, String fieldName, String descriptor,
+                    String signature, Object value) {
+                result.add(fieldName);
+                return null;
+            }
+        }, 0);
+        return result;
+    }
+
+    static byte[] withField(String className, String field) {
+        ClassWriter cw = new ClassWriter(0);
+        cw.visit(V11, ACC_PUBLIC, className, null, "java/lang/Object", null);
+        cw.visitField(ACC_PUBLIC, field, "I", null, null).visitEnd();
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.jarmerge.relocation;
+
+import java.util.HashMap;
+import java.util.Map;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class RelocationRulesTest {
+
+    @Test
+    public void testExactAndSubtreeRules() {
+        Map<String, String> props = new HashMap<>();
+        props.put("package:com.foo", "org.bar");
+        props.put("package:com.foo.**", "org.baz");
+        props.put("package:net.x.**", "shaded.x");
+        props.put("unrelated", "whatever");
+        RelocationRules rules = RelocationRules.create(props, "package:", "defaultPackageDest");
+        assertFalse(rules.isEmpty());
+        assertNull(rules.defaultPackageTarget());
+
+        // Exact rule wins over the subtree rule for the same package
+        assertEquals("org.bar", rules.replacementPackage("com.foo"));
+        assertEquals("org/bar", rules.replacementPackage("com/foo"));
+        assertEquals("org/baz/impl/deep", rules.replacementPackage("com/foo/impl/deep"));
+        assertEquals("shaded.x", rules.replacementPackage("net.x"));
+        assertEquals("shaded.x.y", rules.replacementPackage("net.x.y"));
+
+        assertEquals("com.fo", rules.replacementPackage("com.fo"));
+        assertEquals("com", rules.replacementPackage("com"));
+        assertEquals("net.xy", rules.replacementPackage("net.xy"));
+        assertEquals("java.lang", rules.replacementPackage("java.lang"));
+
+        String cls = "Lcom/foo/impl/Thing;";
+        assertTrue(rules.relocates(cls, 1, cls.lastIndexOf('/')));
+        String other = "Ljava/util/List;";
+        assertFalse(rules.relocates(other, 1, other.lastIndexOf('/')));
+        // No default package rule
+        assertFalse(rules.relocates("Thing", 0, 0));
+
+        assertEquals("org.baz.impl", rules.relocate("com/foo/impl/Thing.class",
+                "com/foo/impl".length(), '.'));
+        assertNull(rules.relocate("com/fooo/Thing.class", "com/fooo".length(), '.'));
+    }
+
+    @Test
+    public void testDefaultPackage() {
+        Map<String, String> props = new HashMap<>();
+        props.put("defaultPackageDest", "was.default");
+        RelocationRules rules = RelocationRules.create(props, "package:", "defaultPackageDest");
+        assertFalse(rules.isEmpty());
+        assertEquals("was/default", rules.relocate("Thing.class", 0, '/'));
+        assertTrue(rules.relocates("Thing", 0, 0));
+        assertFalse(rules.relocates("com/Thing", 0, 3));
+        assertTrue(RelocationRules.create(new HashMap<>(), "package:", "defaultPackageDest").isEmpty());
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.jarmerge.relocation;
+
+import com.mastfrog.jarmerge.JarMerge;
+import static com.mastfrog.jarmerge.relocation.ClassRelocatingJarFilter.SIGNATURE_CACHE_SIZE;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class RemapCacheTest {
+
+    @Test
+    public void testHitsMissesAndEviction() {
+        AtomicInteger calls = new AtomicInteger();
+        RemapCache cache = new RemapCache(16);
+        for (int i = 0; i < 3; i++) {
+            assertEquals("Lnew/A;", cache.get("Lold/A;", s -> {
+                calls.incrementAndGet();
+                return s.replace("old", "new");
+            }));
+            // Unchanged results are remembered too
+            assertEquals("Ljava/lang/Object;", cache.get("Ljava/lang/Object;", s -> {
+                calls.incrementAndGet();
+                return s;
+            }));
+        }
+        assertEquals(2, calls.get());
+        assertEquals(2, cache.misses());
+        assertEquals(4, cache.hits());
+
+        // Fill two generations with other entries - the originals are
+        // not touched, so they must be evicted
+        for (int i = 0; i < 40; i++) {
+            cache.get("Lx/Y" + i + ";", s -> s);
+        }
+        assertTrue(cache.evictions() > 0, cache::toString);
+        cache.get("Lold/A;", s -> {
+            calls.incrementAndGet();
+            return s.replace("old", "new");
+        });
+        assertEquals(3, calls.get(), cache::toString);
+    }
+
+    @Test
+    public void testSizeIsValidated() {
+        assertEquals(100, filter(" 100 ").signatureCacheSize());
+        assertEquals(RemapCache.DEFAULT_MAX_SIZE, filter("").signatureCacheSize());
+        IllegalArgumentException ex = assertThrows(IllegalArgumentException.class,
+                () -> filter("lots").signatureCacheSize());
+        assertTrue(ex.getMessage().contains(SIGNATURE_CACHE_SIZE), ex::getMessage);
+        ex = assertThrows(IllegalArgumentException.class, () -> filter("0").signatureCacheSize());
+        assertTrue(ex.getMessage().contains(SIGNATURE_CACHE_SIZE), ex::getMessage);
+        assertThrows(IllegalArgumentException.class, () -> filter("-1").signatureCacheSize());
+    }
+
+    private static ClassRelocatingJarFilter filter(String size) {
+        return new ClassRelocatingJarFilter(JarMerge.builder()
+                .withExtensionProperty(SIGNATURE_CACHE_SIZE, size)
+                .finalJarName("x"));
+    }
+}
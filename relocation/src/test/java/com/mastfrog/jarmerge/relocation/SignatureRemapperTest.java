@@ -0,0 +1,82 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.jarmerge.relocation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class SignatureRemapperTest {
+
+    private final SignatureRemapper remapper = new SignatureRemapper((in, start, end) -> {
+        String name = in.substring(start, end);
+        if (name.startsWith("com/old/")) {
+            return "org/neu/" + name.substring("com/old/".length());
+        } else if ("Dflt".equals(name)) {
+            return "was/dflt/Dflt";
+        }
+        return null;
+    });
+
+    @Test
+    public void testDescriptors() {
+        assertEquals("Lorg/neu/Foo;", remapper.remap("Lcom/old/Foo;"));
+        assertEquals("[[Lorg/neu/Foo;", remapper.remap("[[Lcom/old/Foo;"));
+        assertEquals("(ILorg/neu/Foo;[Ljava/lang/String;Lwas/dflt/Dflt;)Lorg/neu/Foo$Inner;",
+                remapper.remap("(ILcom/old/Foo;[Ljava/lang/String;LDflt;)Lcom/old/Foo$Inner;"));
+        assertEquals("org/neu/Foo", remapper.remapName("com/old/Foo"));
+        assertEquals("[Lorg/neu/Foo;", remapper.remapName("[Lcom/old/Foo;"));
+        assertEquals("was/dflt/Dflt", remapper.remapName("Dflt"));
+    }
+
+    @Test
+    public void testSignatures() {
+        assertEquals("<T:Lorg/neu/Foo;:Ljava/lang/Comparable<-TT;>;>Ljava/lang/Object;Ljava/util/function/Supplier<Lorg/neu/Foo<+TT;>.Inner<*>;>;",
+                remapper.remap("<T:Lcom/old/Foo;:Ljava/lang/Comparable<-TT;>;>Ljava/lang/Object;Ljava/util/function/Supplier<Lcom/old/Foo<+TT;>.Inner<*>;>;"));
+        assertEquals("<L::Ljava/util/List<Lorg/neu/Foo;>;>(TL;)Ljava/util/Map<Ljava/lang/String;[Lorg/neu/Foo;>;^Lorg/neu/Oops;^TX;",
+                remapper.remap("<L::Ljava/util/List<Lcom/old/Foo;>;>(TL;)Ljava/util/Map<Ljava/lang/String;[Lcom/old/Foo;>;^Lcom/old/Oops;^TX;"),
+                "A type parameter named L must not be taken for a class type");
+    }
+
+    @Test
+    public void testUnchangedReturnsSameInstance() {
+        String sig = "<T:Ljava/lang/Object;>(Ljava/util/List<TT;>;I)V";
+        assertSame(sig, remapper.remap(sig));
+        String desc = "()V";
+        assertSame(desc, remapper.remap(desc));
+        String name = "java/lang/Object";
+        assertSame(name, remapper.remapName(name));
+    }
+
+    @Test
+    public void testMalformed() {
+        assertThrows(IllegalArgumentException.class, () -> remapper.remap("(Lcom/old/Foo;"));
+        assertThrows(IllegalArgumentException.class, () -> remapper.remap("Qcom/old/Foo;"));
+    }
+}
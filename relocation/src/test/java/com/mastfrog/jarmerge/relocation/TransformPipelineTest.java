@@ -0,0 +1,163 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.jarmerge.relocation;
+
+import com.mastfrog.jarmerge.MergeLog;
+import java.io.IOException;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class TransformPipelineTest {
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(3);
+
+    @AfterEach
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testResultsComeBackInOrder() throws Exception {
+        List<Fake> coas = fakes(20);
+        // Hand them over shuffled - the pipeline must still run ahead in path order
+        List<Fake> shuffled = new ArrayList<>(coas);
+        Collections.reverse(shuffled);
+        TransformPipeline pipeline = new TransformPipeline(shuffled, executor, 4);
+        for (Fake coa : coas) {
+            assertArrayEquals(coa.expected(), pipeline.take(coa), coa.path);
+        }
+        for (Fake coa : coas) {
+            assertEquals(1, coa.calls.get(), "Transformed more than once: " + coa);
+        }
+    }
+
+    @Test
+    public void testOutOfOrderTake() throws Exception {
+        List<Fake> coas = fakes(10);
+        TransformPipeline pipeline = new TransformPipeline(coas, executor, 3);
+        // Not yet in flight - computed on the calling thread
+        Fake last = coas.get(9);
+        assertArrayEquals(last.expected(), pipeline.take(last));
+        // In flight, but not the head of the window
+        Fake third = coas.get(2);
+        assertArrayEquals(third.expected(), pipeline.take(third));
+        for (Fake coa : coas) {
+            if (coa != last && coa != third) {
+                assertArrayEquals(coa.expected(), pipeline.take(coa), coa.path);
+            }
+        }
+        for (Fake coa : coas) {
+            assertEquals(1, coa.calls.get(), "Transformed more than once: " + coa);
+        }
+    }
+
+    @Test
+    public void testTransformFailureIsPassedOn() throws Exception {
+        List<Fake> coas = fakes(8);
+        IOException inWindow = new IOException("in window");
+        IOException outOfOrder = new IOException("out of order");
+        coas.get(1).failure = inWindow;
+        coas.get(7).failure = outOfOrder;
+        TransformPipeline pipeline = new TransformPipeline(coas, executor, 3);
+        assertArrayEquals(coas.get(0).expected(), pipeline.take(coas.get(0)));
+        assertSame(inWindow, assertThrows(IOException.class, () -> pipeline.take(coas.get(1))),
+                "The transform's own exception should be thrown, not a wrapper");
+        assertSame(outOfOrder, assertThrows(IOException.class, () -> pipeline.take(coas.get(7))));
+        // A failure does not poison the rest of the window
+        for (int i = 2; i < 7; i++) {
+            assertArrayEquals(coas.get(i).expected(), pipeline.take(coas.get(i)));
+        }
+    }
+
+    private static List<Fake> fakes(int count) {
+        List<Fake> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(new Fake(String.format("com/foo/C%02d.class", i)));
+        }
+        return result;
+    }
+
+    static final class Fake implements TransformingCoalescer {
+
+        final String path;
+        final AtomicInteger calls = new AtomicInteger();
+        volatile Exception failure;
+
+        Fake(String path) {
+            this.path = path;
+        }
+
+        byte[] expected() {
+            return path.getBytes(UTF_8);
+        }
+
+        @Override
+        public byte[] transformedBytes() throws Exception {
+            calls.incrementAndGet();
+            if (failure != null) {
+                throw failure;
+            }
+            return expected();
+        }
+
+        @Override
+        public String path() {
+            return path;
+        }
+
+        @Override
+        public void writeCoalesced(JarOutputStream out, MergeLog log) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void add(Path jar, JarEntry entry, JarFile in, MergeLog log) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String toString() {
+            return path;
+        }
+    }
+}